@@ -0,0 +1,129 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package bench;
+
+import api.FlatPartitionTree;
+import api.InertialPartitioner;
+import api.Line;
+import api.Node;
+import api.PartitionTree;
+import api.PointSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Finding the region of a point once the lines are known: side membership
+ * against every line, the packed bit path of getBinaryCode (over the
+ * first 64 lines at most), the walk down the partition tree, and batch
+ * classification on its flat encoding.
+ * Scores are per query point.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ClassificationBenchmark
+{
+    public static final int QUERIES = 1024;
+
+    @Param({"100000"})
+    public int n;
+
+    @Param({"grid", "floorplan", "clusters", "collinear"})
+    public String shape;
+
+    @Param({"1", "7", "31", "127"})
+    public int k;
+
+    private List<Line> lines;
+    private List<Line> codeLines; //the lines that fit in a long
+    private PartitionTree tree;
+    private FlatPartitionTree flat;
+    private double[] queryXs;
+    private double[] queryYs;
+    private int[] regions;
+    private Node[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        PointSet points = Shapes.create(shape, n);
+        tree = InertialPartitioner.getPartitionTree(points, k);
+        lines = tree.getLines();
+        codeLines = lines.subList(0, Math.min(lines.size(), Long.SIZE));
+
+        Random rand = new Random(n);
+        queries = new Node[QUERIES];
+        for (int i = 0; i < QUERIES; ++i)
+            queries[i] = points.getNode(rand.nextInt(n));
+
+        flat = tree.flatten();
+        queryXs = new double[QUERIES];
+        queryYs = new double[QUERIES];
+        regions = new int[QUERIES];
+        for (int i = 0; i < QUERIES; ++i)
+        {
+            queryXs[i] = queries[i].getX();
+            queryYs[i] = queries[i].getY();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void sideMembership(Blackhole bh)
+    {
+        for (Node node : queries)
+            for (Line line : lines)
+                bh.consume(line.getSideMembership(node));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void binaryCode(Blackhole bh)
+    {
+        for (Node node : queries)
+            bh.consume(InertialPartitioner.getBinaryCode(node, codeLines));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void locate(Blackhole bh)
+    {
+        for (Node node : queries)
+            bh.consume(tree.locate(node));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int[] classifyBatch()
+    {
+        flat.classifyBatch(queryXs, queryYs, regions);
+        return regions;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package bench;
+
+import api.BoundaryRefiner;
+import api.CellGraph;
+import api.EdgeCut;
+import api.InertialPartitioner;
+import api.MultilevelPartitioner;
+import api.PointSet;
+import api.Slicing;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measuring a partition of the cell graph (EdgeCut), refining it
+ * (BoundaryRefiner), partitioning it through coarser graphs
+ * (MultilevelPartitioner), and building the graph in compressed sparse rows.
+ *
+ * The edge cut of each partitioning strategy is printed once per trial,
+ * so the strategies can be compared on it as well as on their time.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class EdgeCutBenchmark
+{
+    @Param({"100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"grid", "floorplan"})
+    public String shape;
+
+    @Param({"7", "31"})
+    public int k;
+
+    //lines: k lines by getLines; slices: k + 1 slices by getSlices;
+    //refined: the lines, then BoundaryRefiner; multilevel: MultilevelPartitioner
+    @Param({"lines", "slices", "refined", "multilevel"})
+    public String strategy;
+
+    private ForkJoinPool pool;
+    private int rows;
+    private int cols;
+    private BitSet cells;
+    private CellGraph graph;
+    private int[] labels;
+    private int parts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        pool = new ForkJoinPool();
+
+        PointSet points = Shapes.create(shape, n);
+        for (int i = 0; i < points.size(); ++i)
+        {
+            cols = Math.max(cols, points.getX(i) + 1);
+            rows = Math.max(rows, points.getY(i) + 1);
+        }
+        cells = new BitSet(rows * cols);
+        for (int i = 0; i < points.size(); ++i)
+            cells.set(points.getY(i) * cols + points.getX(i));
+        graph = CellGraph.csr(rows, cols, cells, pool);
+
+        PointSet vertices = graph.toPointSet();
+        if ("lines".equals(strategy) || "refined".equals(strategy))
+        {
+            labels = EdgeCut.getLabels(graph, InertialPartitioner.getLines(vertices, k));
+            parts = k + 1;
+            if ("refined".equals(strategy))
+                BoundaryRefiner.refine(graph, labels, parts, pool);
+        }
+        else if ("slices".equals(strategy))
+        {
+            Slicing slicing = InertialPartitioner.getSlices(vertices, k + 1);
+            labels = new int[graph.getVertexCount()];
+            for (int v = 0; v < labels.length; ++v)
+                labels[v] = slicing.locate(graph.getX(v), graph.getY(v));
+            parts = k + 1;
+        }
+        else if ("multilevel".equals(strategy))
+        {
+            labels = MultilevelPartitioner.partition(graph, k, pool);
+            parts = k + 1;
+        }
+        else
+            throw new IllegalArgumentException("Unknown strategy: " + strategy);
+
+        System.out.printf("%n%s, n = %d, %s, k = %d: %s%n", shape, n, strategy, k, EdgeCut.of(graph, labels, parts, pool));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public EdgeCut evaluate()
+    {
+        return EdgeCut.of(graph, labels, parts, pool);
+    }
+
+    @Benchmark
+    public int[] refine()
+    {
+        int[] refined = labels.clone();
+        BoundaryRefiner.refine(graph, refined, parts, pool);
+        return refined;
+    }
+
+    @Benchmark
+    public int[] multilevel() throws Exception
+    {
+        return MultilevelPartitioner.partition(graph, k, pool);
+    }
+
+    @Benchmark
+    public CellGraph buildGraph()
+    {
+        return CellGraph.csr(rows, cols, cells, pool);
+    }
+}
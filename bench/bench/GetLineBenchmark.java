@@ -0,0 +1,71 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package bench;
+
+import api.InertialPartitioner;
+import api.Line;
+import api.PointSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One bisection (getLine) of a whole point set, with the exact median or
+ * an approximate one (0.5% rank error).
+ * getLine reorders the set in place; that does not change the work done by
+ * the next call, so the set is built once per trial.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class GetLineBenchmark
+{
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"grid", "floorplan", "clusters", "collinear"})
+    public String shape;
+
+    private PointSet points;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        points = Shapes.create(shape, n);
+    }
+
+    @Benchmark
+    public Line getLine() throws Exception
+    {
+        return InertialPartitioner.getLine(points);
+    }
+
+    @Benchmark
+    public Line getApproximateLine() throws Exception
+    {
+        return InertialPartitioner.getApproximateLine(points, 0, points.size(), 0.005);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package bench;
+
+import api.InertialPartitioner;
+import api.Line;
+import api.PointSet;
+import api.Slicing;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Partitioning a whole point set with k lines (getLines), or into k + 1
+ * slices (getSlices).
+ *
+ * @author              Vy Thuy Nguyen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class GetLinesBenchmark
+{
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"grid", "floorplan", "clusters", "collinear"})
+    public String shape;
+
+    @Param({"1", "3", "7", "31"})
+    public int k;
+
+    private PointSet points;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        points = Shapes.create(shape, n);
+    }
+
+    @Benchmark
+    public List<Line> getLines() throws Exception
+    {
+        return InertialPartitioner.getLines(points, k);
+    }
+
+    @Benchmark
+    public Slicing getSlices() throws Exception
+    {
+        return InertialPartitioner.getSlices(points, k + 1);
+    }
+}
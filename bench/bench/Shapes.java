@@ -0,0 +1,159 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package bench;
+
+import api.PointSet;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Point sets of a given shape and size for the benchmarks:
+ *  - grid:      a uniform square grid
+ *  - floorplan: copies of the bundled floor plan, tiled side by side
+ *  - clusters:  Gaussian clusters of very different sizes and spreads
+ *  - collinear: points on the line y = 2x + 1
+ *
+ * The floor plan is read from the file named by the system property
+ * "floorplan" (default: floor_plan.png_1374_availCell.txt in the working
+ * directory).
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class Shapes
+{
+    public static final String FLOOR_PLAN = System.getProperty("floorplan", "floor_plan.png_1374_availCell.txt");
+
+    private static final long SEED = 1374;
+
+    private Shapes()
+    {
+    }
+
+    /**
+     * @param shape one of grid, floorplan, clusters, collinear
+     * @param n number of points
+     * @return a new point set
+     * @throws IOException if the floor plan cannot be read
+     */
+    public static PointSet create(String shape, int n) throws IOException
+    {
+        if ("grid".equals(shape))
+            return grid(n);
+        if ("floorplan".equals(shape))
+            return floorPlan(n);
+        if ("clusters".equals(shape))
+            return clusters(n);
+        if ("collinear".equals(shape))
+            return collinear(n);
+        throw new IllegalArgumentException("Unknown shape: " + shape);
+    }
+
+    public static PointSet grid(int n)
+    {
+        int side = (int)Math.ceil(Math.sqrt(n));
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            ids[i] = i;
+            xs[i] = i % side;
+            ys[i] = i / side;
+        }
+        return PointSet.wrap(ids, xs, ys);
+    }
+
+    public static PointSet floorPlan(int n) throws IOException
+    {
+        List<int[]> cells = new ArrayList<int[]>();
+        int width = 0, height = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(FLOOR_PLAN));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] tokens = line.trim().split("\\s+");
+                int[] cell = {Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])};
+                width = Math.max(width, cell[0] + 1);
+                height = Math.max(height, cell[1] + 1);
+                cells.add(cell);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        //Tile copies of the plan in a square arrangement, one empty cell apart
+        int copies = (n + cells.size() - 1) / cells.size();
+        int tilesPerRow = (int)Math.ceil(Math.sqrt(copies));
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            int copy = i / cells.size();
+            int[] cell = cells.get(i % cells.size());
+            ids[i] = i;
+            xs[i] = cell[0] + (copy % tilesPerRow) * (width + 1);
+            ys[i] = cell[1] + (copy / tilesPerRow) * (height + 1);
+        }
+        return PointSet.wrap(ids, xs, ys);
+    }
+
+    public static PointSet clusters(int n)
+    {
+        final int CLUSTERS = 8;
+        Random rand = new Random(SEED);
+        double[] cx = new double[CLUSTERS], cy = new double[CLUSTERS], sigma = new double[CLUSTERS];
+        for (int c = 0; c < CLUSTERS; ++c)
+        {
+            cx[c] = rand.nextInt(100000);
+            cy[c] = rand.nextInt(100000);
+            sigma[c] = 10 + rand.nextInt(2000);
+        }
+
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            //Cluster c holds about half of what cluster c - 1 holds
+            int c = Math.min(CLUSTERS - 1, Integer.numberOfTrailingZeros(rand.nextInt() | (1 << 30)));
+            ids[i] = i;
+            xs[i] = (int)Math.round(cx[c] + sigma[c] * rand.nextGaussian());
+            ys[i] = (int)Math.round(cy[c] + sigma[c] * rand.nextGaussian());
+        }
+        return PointSet.wrap(ids, xs, ys);
+    }
+
+    public static PointSet collinear(int n)
+    {
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        for (int i = 0; i < n; ++i)
+        {
+            ids[i] = i;
+            xs[i] = i;
+            ys[i] = 2 * i + 1;
+        }
+        return PointSet.wrap(ids, xs, ys);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A point set stored as parallel arrays (see PointSet.wrap and
+ * PointSet.fromNodes)
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class ArrayPointSet extends PointSet
+{
+    private final int[] ids;
+    private final int[] xs;
+    private final int[] ys;
+    private final double[] weights; //null if the points carry no weights
+    private final Node[] nodes;     //null unless built from nodes
+
+    ArrayPointSet(int[] ids, int[] xs, int[] ys, double[] weights, Node[] nodes)
+    {
+        if (ids.length != xs.length || xs.length != ys.length 
+            || (weights != null && weights.length != xs.length))
+            throw new IllegalArgumentException("ids, xs, ys and weights must have the same length");
+
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.weights = weights;
+        this.nodes = nodes;
+    }
+
+    @Override
+    public List<Node> toNodes(int from, int to)
+    {
+        if (nodes != null)
+            return Collections.unmodifiableList(Arrays.asList(nodes).subList(from, to));
+        return super.toNodes(from, to);
+    }
+
+    @Override
+    public Node getNode(int i)
+    {
+        return (nodes != null ? nodes[i] : new Node(ids[i], xs[i], ys[i], getWeight(i)));
+    }
+
+    @Override
+    public int size()
+    {
+        return xs.length;
+    }
+
+    @Override
+    public int getId(int i)
+    {
+        return ids[i];
+    }
+
+    @Override
+    public int getX(int i)
+    {
+        return xs[i];
+    }
+
+    @Override
+    public int getY(int i)
+    {
+        return ys[i];
+    }
+
+    @Override
+    public boolean hasWeights()
+    {
+        return weights != null;
+    }
+
+    @Override
+    public double getWeight(int i)
+    {
+        return (weights == null ? 1 : weights[i]);
+    }
+
+    @Override
+    void addTo(Moments moments, int from, int to)
+    {
+        //Unweighted points around an integer reference point: exact sums
+        double x0 = moments.getX0();
+        double y0 = moments.getY0();
+        if (weights == null && x0 == (int)x0 && y0 == (int)y0)
+        {
+            double[] sums = new double[5];
+            if (Kernels.sums(xs, ys, from, to, (int)x0, (int)y0, sums))
+            {
+                moments.addSums(to - from, sums);
+                return;
+            }
+        }
+        super.addTo(moments, from, to);
+    }
+
+    @Override
+    void project(int from, int to, double a, double b, double xbar, double ybar, double[] out, int offset)
+    {
+        Kernels.project(xs, ys, from, to, a, b, xbar, ybar, out, offset);
+    }
+
+    @Override
+    public int partition(Line line, int from, int to)
+    {
+        return Kernels.partition(xs, ys, from, to,
+                                 line.getA(), line.getB(), line.getXbar(), line.getYbar(), line.getSbar(),
+                                 this);
+    }
+
+    @Override
+    public void swap(int i, int j)
+    {
+        int tmp = ids[i];
+        ids[i] = ids[j];
+        ids[j] = tmp;
+
+        tmp = xs[i];
+        xs[i] = xs[j];
+        xs[j] = tmp;
+
+        tmp = ys[i];
+        ys[i] = ys[j];
+        ys[j] = tmp;
+
+        if (weights != null)
+        {
+            double w = weights[i];
+            weights[i] = weights[j];
+            weights[j] = w;
+        }
+
+        if (nodes != null)
+        {
+            Node node = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = node;
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fiduccia-Mattheyses refinement of a partition of a cell graph: moves
+ * vertices across the boundaries the lines left, to lower the edge cut
+ * (see EdgeCut) while keeping every part within a strict size bound.
+ *
+ * A pass refines every pair of parts that share a boundary. For a pair
+ * (a, b), the vertices on the boundary go into gain buckets (one array of
+ * lists per direction, indexed by the gain of moving the vertex to the
+ * other part), so the best move is found in O(1); each vertex moves at
+ * most once per pass, its neighbours' gains being updated in place, and
+ * the pass keeps the prefix of the moves with the best total gain. The
+ * buckets are allocated once and only the ones used are emptied after a
+ * pair, so a pass is linear in the size of the boundaries. When the best
+ * vertex of a side may not move (it would take a part out of its bounds),
+ * the next ones in gain order are tried, up to MAX_SCANNED of them.
+ *
+ * Pairs with no part in common are independent: they are grouped into
+ * rounds of disjoint pairs and the pairs of a round are refined in
+ * parallel on a pool. A vertex only ever moves between the two parts of
+ * its pair, so the result does not depend on the pool.
+ *
+ * Part p stays within [init(p) * (1 - imbalance), init(p) * (1 + imbalance)]
+ * (and may always gain or lose one unit of weight), init(p) being its size
+ * before refinement, so the proportions chosen by the partitioner are kept.
+ * Vertices may carry weights (e.g. the cells a coarse vertex stands for,
+ * see MultilevelPartitioner); the size of a part is then its weight.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class BoundaryRefiner
+{
+    public static final double DEFAULT_IMBALANCE = 0.03;
+    public static final int DEFAULT_PASSES = 4;
+
+    /**
+     * A pass over a pair stops after this many moves without a better
+     * total gain
+     */
+    public static final int MAX_FRUITLESS_MOVES = 128;
+
+    /**
+     * The most vertices looked at, per side, for a move that keeps both
+     * parts within their bounds
+     */
+    public static final int MAX_SCANNED = 256;
+
+    //Gains are bucketed in steps of 1 / GAIN_SCALE
+    private static final double GAIN_SCALE = 64;
+    private static final double EPSILON = 1e-9;
+
+    private static final byte FREE = 0;
+    private static final byte QUEUED = 1;
+    private static final byte LOCKED = 2;
+
+    private final CellGraph graph;
+    private final int[] vertexWeights;   //null for unit weights
+    private final int[] labels;
+    private final int[] sizes;
+    private final int[] minSizes;
+    private final int[] maxSizes;
+    private final int offset;   //bucket of gain 0
+
+    //Per vertex; each vertex belongs to a single pair of a round
+    private final double[] gains;
+    private final int[] next;
+    private final int[] prev;
+    private final byte[] states;
+
+    //The gain buckets of the pairs of a round, pair i using slot i
+    private final List<int[][]> bucketSlots = new ArrayList<int[][]>();
+
+    /**
+     * @param reference the sizes the bounds are relative to, or null for the
+     * current sizes
+     */
+    private BoundaryRefiner(CellGraph graph, int[] weights, int[] labels, int parts, int[] reference, double imbalance)
+    {
+        final int n = graph.getVertexCount();
+        this.graph = graph;
+        this.vertexWeights = weights;
+        this.labels = labels;
+
+        sizes = new int[parts];
+        for (int v = 0; v < n; ++v)
+            sizes[labels[v]] += getWeight(v);
+        if (reference == null)
+            reference = sizes;
+        minSizes = new int[parts];
+        maxSizes = new int[parts];
+        for (int p = 0; p < parts; ++p)
+        {
+            minSizes[p] = Math.min((int)Math.floor(reference[p] * (1 - imbalance)), reference[p] - 1);
+            maxSizes[p] = Math.max((int)Math.ceil(reference[p] * (1 + imbalance)), reference[p] + 1);
+        }
+
+        //No gain exceeds the weighted degree of a vertex
+        double maxDegree = 0;
+        int[] neighbors = new int[graph.getMaxDegree()];
+        float[] edgeWeights = new float[graph.getMaxDegree()];
+        for (int v = 0; v < n; ++v)
+        {
+            int degree = graph.getNeighbors(v, neighbors, edgeWeights);
+            double sum = 0;
+            for (int i = 0; i < degree; ++i)
+                sum += edgeWeights[i];
+            maxDegree = Math.max(maxDegree, sum);
+        }
+        offset = (int)Math.ceil(maxDegree * GAIN_SCALE);
+
+        gains = new double[n];
+        next = new int[n];
+        prev = new int[n];
+        states = new byte[n];
+    }
+
+    /**
+     * Same as refine(graph, labels, parts, DEFAULT_IMBALANCE, DEFAULT_PASSES, pool)
+     */
+    public static double refine(CellGraph graph, int[] labels, int parts, ForkJoinPool pool)
+    {
+        return refine(graph, labels, parts, DEFAULT_IMBALANCE, DEFAULT_PASSES, pool);
+    }
+
+    /**
+     * Refines a k-way partition in place
+     *
+     * @param graph
+     * @param labels the part of every vertex, in [0, parts); updated
+     * @param parts number of parts
+     * @param imbalance how far, as a fraction of its size, a part may grow
+     * or shrink
+     * @param passes the most passes to make; refinement stops earlier once
+     * a pass gains nothing
+     * @param pool the pool to refine independent pairs on, or null
+     * @return the decrease of the edge cut (EdgeCut.getEdgeCut)
+     */
+    public static double refine(CellGraph graph, int[] labels, int parts, double imbalance, int passes, ForkJoinPool pool)
+    {
+        return refine(graph, null, labels, parts, null, imbalance, passes, pool);
+    }
+
+    /**
+     * Same as refine(CellGraph, int[], int, double, int, ForkJoinPool) with
+     * weighted vertices: the size of a part is the total weight of its
+     * vertices
+     *
+     * @param weights the weight of every vertex, >= 1, or null for unit weights
+     */
+    public static double refine(CellGraph graph, int[] weights, int[] labels, int parts, double imbalance, int passes, ForkJoinPool pool)
+    {
+        return refine(graph, weights, labels, parts, null, imbalance, passes, pool);
+    }
+
+    /**
+     * @param reference the sizes the bounds of the parts are relative to, or
+     * null for their sizes before refinement
+     */
+    static double refine(CellGraph graph, int[] weights, int[] labels, int parts, int[] reference,
+                         double imbalance, int passes, ForkJoinPool pool)
+    {
+        checkLabels(graph, labels, parts, imbalance);
+        BoundaryRefiner refiner = new BoundaryRefiner(graph, weights, labels, parts, reference, imbalance);
+        double total = 0;
+        for (int pass = 0; pass < passes; ++pass)
+        {
+            double gain = refiner.pass(pool);
+            total += gain;
+            if (gain <= EPSILON)
+                break;
+        }
+        return total;
+    }
+
+    /**
+     * Refines the boundary between parts a and b only (e.g. the two sides
+     * of a single bisection, labelled 0 and 1)
+     *
+     * @param graph
+     * @param labels the part of every vertex, in [0, parts); updated
+     * @param parts number of parts
+     * @param a
+     * @param b
+     * @param imbalance see refine
+     * @param passes see refine
+     * @return the decrease of the edge cut
+     */
+    public static double refinePair(CellGraph graph, int[] labels, int parts, int a, int b, double imbalance, int passes)
+    {
+        checkLabels(graph, labels, parts, imbalance);
+        BoundaryRefiner refiner = new BoundaryRefiner(graph, null, labels, parts, null, imbalance);
+        double total = 0;
+        int[][] heads = refiner.getBuckets(0);
+        for (int pass = 0; pass < passes; ++pass)
+        {
+            //The boundary of the pair, both sides
+            int[] boundary = new int[16];
+            int count = 0;
+            for (int v = 0; v < graph.getVertexCount(); ++v)
+                if ((labels[v] == a || labels[v] == b) && refiner.isOnBoundary(v, a, b))
+                {
+                    if (count == boundary.length)
+                        boundary = Arrays.copyOf(boundary, 2 * count);
+                    boundary[count++] = v;
+                }
+
+            double gain = refiner.refine(a, b, boundary, count, heads);
+            total += gain;
+            if (gain <= EPSILON)
+                break;
+        }
+        return total;
+    }
+
+    private static void checkLabels(CellGraph graph, int[] labels, int parts, double imbalance)
+    {
+        if (labels.length < graph.getVertexCount())
+            throw new IllegalArgumentException("There must be a label for every vertex");
+        for (int v = 0; v < graph.getVertexCount(); ++v)
+            if (labels[v] < 0 || labels[v] >= parts)
+                throw new IllegalArgumentException(String.format("Vertex %d has label %d, not in [0, %d)", v, labels[v], parts));
+        if (!(imbalance >= 0))
+            throw new IllegalArgumentException("imbalance must be >= 0");
+    }
+
+    /**
+     * One pass over every pair of parts sharing a boundary
+     *
+     * @return the decrease of the edge cut
+     */
+    private double pass(ForkJoinPool pool)
+    {
+        //The boundary vertices of every pair (p, q), p < q, in vertex order
+        final int n = graph.getVertexCount();
+        Map<Long, Integer> pairIds = new HashMap<Long, Integer>();
+        List<int[]> pairs = new ArrayList<int[]>();        //{p, q}
+        List<int[]> boundaries = new ArrayList<int[]>();
+        List<Integer> counts = new ArrayList<Integer>();
+        int[] neighbors = new int[graph.getMaxDegree()];
+        int[] seen = new int[graph.getMaxDegree()];
+        for (int v = 0; v < n; ++v)
+        {
+            int p = labels[v];
+            int degree = graph.getNeighbors(v, neighbors, null);
+            int others = 0;
+            for (int i = 0; i < degree; ++i)
+            {
+                int q = labels[neighbors[i]];
+                if (q == p)
+                    continue;
+                int s = 0;
+                while (s < others && seen[s] != q)
+                    ++s;
+                if (s < others)
+                    continue;
+                seen[others++] = q;
+
+                long key = ((long)Math.min(p, q) << 32) | Math.max(p, q);
+                Integer id = pairIds.get(key);
+                if (id == null)
+                {
+                    id = pairs.size();
+                    pairIds.put(key, id);
+                    pairs.add(new int[] {Math.min(p, q), Math.max(p, q)});
+                    boundaries.add(new int[16]);
+                    counts.add(0);
+                }
+                int[] boundary = boundaries.get(id);
+                int count = counts.get(id);
+                if (count == boundary.length)
+                    boundaries.set(id, boundary = Arrays.copyOf(boundary, 2 * count));
+                boundary[count] = v;
+                counts.set(id, count + 1);
+            }
+        }
+
+        //Rounds of pairs with no part in common, longest boundaries first
+        Integer[] order = new Integer[pairs.size()];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = i;
+        final List<Integer> countsOf = counts;
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j)
+            {
+                int c = Integer.compare(countsOf.get(j), countsOf.get(i));
+                return (c != 0 ? c : Integer.compare(i, j));
+            }
+        });
+        List<List<PairTask>> rounds = new ArrayList<List<PairTask>>();
+        List<boolean[]> busy = new ArrayList<boolean[]>();
+        for (int id : order)
+        {
+            int[] pair = pairs.get(id);
+            int r = 0;
+            while (r < rounds.size() && (busy.get(r)[pair[0]] || busy.get(r)[pair[1]]))
+                ++r;
+            if (r == rounds.size())
+            {
+                rounds.add(new ArrayList<PairTask>());
+                busy.add(new boolean[sizes.length]);
+            }
+            List<PairTask> round = rounds.get(r);
+            round.add(new PairTask(pair[0], pair[1], boundaries.get(id), counts.get(id), getBuckets(round.size())));
+            busy.get(r)[pair[0]] = true;
+            busy.get(r)[pair[1]] = true;
+        }
+
+        double gain = 0;
+        for (final List<PairTask> round : rounds)
+        {
+            if (pool == null || round.size() == 1)
+            {
+                for (PairTask task : round)
+                    task.compute();
+            }
+            else
+            {
+                RecursiveAction all = new RecursiveAction() {
+                    @Override
+                    protected void compute()
+                    {
+                        invokeAll(round);
+                    }
+                };
+                if (ForkJoinTask.getPool() == pool)
+                    all.invoke();
+                else
+                    pool.invoke(all);
+            }
+
+            //Summed in a fixed order
+            for (PairTask task : round)
+                gain += task.gain;
+        }
+        return gain;
+    }
+
+    /**
+     * @return the empty gain buckets of the given slot (see refine)
+     */
+    private int[][] getBuckets(int slot)
+    {
+        while (bucketSlots.size() <= slot)
+        {
+            int[][] heads = new int[2][2 * offset + 1];
+            Arrays.fill(heads[0], -1);
+            Arrays.fill(heads[1], -1);
+            bucketSlots.add(heads);
+        }
+        return bucketSlots.get(slot);
+    }
+
+    private boolean isOnBoundary(int v, int a, int b)
+    {
+        int other = (labels[v] == a ? b : a);
+        int[] neighbors = new int[graph.getMaxDegree()];
+        int degree = graph.getNeighbors(v, neighbors, null);
+        for (int i = 0; i < degree; ++i)
+            if (labels[neighbors[i]] == other)
+                return true;
+        return false;
+    }
+
+    /**
+     * One Fiduccia-Mattheyses pass over the pair (a, b)
+     *
+     * @param boundary the vertices of a and b with a neighbour in the other part
+     * @param count the number of them
+     * @param heads empty gain buckets (side 0: moves from a to b, side 1:
+     * from b to a), left empty
+     * @return the decrease of the edge cut
+     */
+    private double refine(int a, int b, int[] boundary, int count, int[][] heads)
+    {
+        int[] top = {-1, -1};                  //highest bucket that may be non-empty
+
+        int[] neighbors = new int[graph.getMaxDegree()];
+        float[] weights = new float[graph.getMaxDegree()];
+        int[] scratch = new int[graph.getMaxDegree()];
+        float[] scratchWeights = new float[graph.getMaxDegree()];
+        int[] touched = new int[Math.max(16, 2 * count)];
+        int touchedCount = 0;
+        int[] moves = new int[16];
+        int moveCount = 0;
+
+        for (int i = 0; i < count; ++i)
+        {
+            //Earlier pairs of the pass may have moved it to a third part
+            int v = boundary[i];
+            if (labels[v] != a && labels[v] != b)
+                continue;
+            gains[v] = getGain(v, a, b, neighbors, weights);
+            insert(v, labels[v] == a ? 0 : 1, heads, top);
+            if (touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, 2 * touchedCount);
+            touched[touchedCount++] = v;
+        }
+
+        double total = 0;
+        double best = 0;
+        int bestCount = 0;
+        int fruitless = 0;
+        while (true)
+        {
+            //Best move that keeps both parts within their bounds
+            int side = -1;
+            int v = -1;
+            for (int s = 0; s < 2; ++s)
+            {
+                int from = (s == 0 ? a : b);
+                int to = (s == 0 ? b : a);
+                int u = findMove(s, from, to, heads, top);
+                if (u < 0)
+                    continue;
+                //On a tie, move out of the larger part
+                if (v < 0 || gains[u] > gains[v] || (gains[u] == gains[v] && sizes[from] > sizes[to]))
+                {
+                    side = s;
+                    v = u;
+                }
+            }
+            if (v < 0)
+                break;
+
+            //Move v
+            int from = (side == 0 ? a : b);
+            int to = (side == 0 ? b : a);
+            remove(v, side, heads);
+            states[v] = LOCKED;
+            labels[v] = to;
+            sizes[from] -= getWeight(v);
+            sizes[to] += getWeight(v);
+            total += gains[v];
+            if (moveCount == moves.length)
+                moves = Arrays.copyOf(moves, 2 * moveCount);
+            moves[moveCount++] = v;
+
+            if (total > best + EPSILON)
+            {
+                best = total;
+                bestCount = moveCount;
+                fruitless = 0;
+            }
+            else if (++fruitless > MAX_FRUITLESS_MOVES)
+                break;
+
+            //The edges to v change sides for its neighbours in a and b
+            int degree = graph.getNeighbors(v, neighbors, weights);
+            for (int i = 0; i < degree; ++i)
+            {
+                int u = neighbors[i];
+                int label = labels[u];
+                if ((label != a && label != b) || states[u] == LOCKED)
+                    continue;
+                int s = (label == a ? 0 : 1);
+                if (states[u] == QUEUED)
+                {
+                    remove(u, s, heads);
+                    gains[u] += (label == from ? 2 : -2) * (double)weights[i];
+                }
+                else
+                {
+                    gains[u] = getGain(u, a, b, scratch, scratchWeights);
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, 2 * touchedCount);
+                    touched[touchedCount++] = u;
+                }
+                insert(u, s, heads, top);
+            }
+        }
+
+        //Undo the moves after the best prefix
+        for (int i = moveCount - 1; i >= bestCount; --i)
+        {
+            int v = moves[i];
+            int from = labels[v];
+            int to = (from == a ? b : a);
+            labels[v] = to;
+            sizes[from] -= getWeight(v);
+            sizes[to] += getWeight(v);
+        }
+
+        //Empty the buckets for the next pair
+        for (int i = 0; i < touchedCount; ++i)
+        {
+            int v = touched[i];
+            if (states[v] == QUEUED)
+                heads[labels[v] == a ? 0 : 1][getBucket(gains[v])] = -1;
+            states[v] = FREE;
+        }
+        return best;
+    }
+
+    /**
+     * @return the vertex of the highest gain on the given side that can move
+     * without taking from or to out of its bounds, -1 if none is found
+     */
+    private int findMove(int side, int from, int to, int[][] heads, int[] top)
+    {
+        while (top[side] >= 0 && heads[side][top[side]] < 0)
+            --top[side];
+        int slack = Math.min(sizes[from] - minSizes[from], maxSizes[to] - sizes[to]);
+        if (slack < 1)
+            return -1;  //no vertex weighs less than 1
+
+        int scanned = 0;
+        for (int bucket = top[side]; bucket >= 0 && scanned < MAX_SCANNED; --bucket)
+            for (int u = heads[side][bucket]; u >= 0 && scanned < MAX_SCANNED; u = next[u], ++scanned)
+                if (getWeight(u) <= slack)
+                    return u;
+        return -1;
+    }
+
+    private int getWeight(int v)
+    {
+        return (vertexWeights == null ? 1 : vertexWeights[v]);
+    }
+
+    /**
+     * @return the decrease of the cut if v moved to the other part of (a, b)
+     */
+    private double getGain(int v, int a, int b, int[] neighbors, float[] weights)
+    {
+        int own = labels[v];
+        int other = (own == a ? b : a);
+        int degree = graph.getNeighbors(v, neighbors, weights);
+        double gain = 0;
+        for (int i = 0; i < degree; ++i)
+        {
+            int label = labels[neighbors[i]];
+            if (label == other)
+                gain += weights[i];
+            else if (label == own)
+                gain -= weights[i];
+        }
+        return gain;
+    }
+
+    private int getBucket(double gain)
+    {
+        int bucket = (int)Math.round(gain * GAIN_SCALE) + offset;
+        return Math.max(0, Math.min(2 * offset, bucket));
+    }
+
+    private void insert(int v, int side, int[][] heads, int[] top)
+    {
+        int bucket = getBucket(gains[v]);
+        int head = heads[side][bucket];
+        next[v] = head;
+        prev[v] = -1;
+        if (head >= 0)
+            prev[head] = v;
+        heads[side][bucket] = v;
+        states[v] = QUEUED;
+        if (bucket > top[side])
+            top[side] = bucket;
+    }
+
+    private void remove(int v, int side, int[][] heads)
+    {
+        if (prev[v] >= 0)
+            next[prev[v]] = next[v];
+        else
+            heads[side][getBucket(gains[v])] = next[v];
+        if (next[v] >= 0)
+            prev[next[v]] = prev[v];
+        states[v] = FREE;
+    }
+
+    /**
+     * One pass over a pair of parts
+     */
+    @SuppressWarnings("serial")
+    private class PairTask extends RecursiveAction
+    {
+        private final int a;
+        private final int b;
+        private final int[] boundary;
+        private final int count;
+        private final int[][] heads;
+        private double gain;
+
+        PairTask(int a, int b, int[] boundary, int count, int[][] heads)
+        {
+            this.a = a;
+            this.b = b;
+            this.boundary = boundary;
+            this.count = count;
+            this.heads = heads;
+        }
+
+        @Override
+        protected void compute()
+        {
+            gain = refine(a, b, boundary, count, heads);
+        }
+    }
+}
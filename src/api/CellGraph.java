@@ -0,0 +1,185 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An undirected weighted graph over the cells of a floor plan: the vertices
+ * are cells of a rows x cols grid, each linked to its (up to) 8 neighbours,
+ * with weight 1 for the north, east, south and west links and DIAGONAL for
+ * the others.
+ *
+ * Vertices are numbered 0 .. getVertexCount() - 1 in row-major order of
+ * their cells; the vertex at column x, row y of a full grid is
+ * y * cols + x. Neighbours are read into caller-provided primitive arrays
+ * (see getNeighbors), so walking the graph allocates nothing.
+ *
+ * Two representations:
+ *  - grid(rows, cols): the full grid, stored implicitly (no edges at all,
+ *    neighbours are computed from the coordinates);
+ *  - csr(...): compressed sparse rows (int offsets, int targets, float
+ *    weights), built in two parallel passes, for grids with missing cells.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public abstract class CellGraph
+{
+    /**
+     * Weight of a diagonal link
+     */
+    public static final float DIAGONAL = (float)Math.sqrt(2.0);
+
+    //The 8 neighbours, in the order N, NE, E, SE, S, SW, W, NW (rows grow southward)
+    static final int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+    static final int[] DY = {-1, -1, 0, 1, 1, 1, 0, -1};
+    static final float[] WEIGHTS = {1, DIAGONAL, 1, DIAGONAL, 1, DIAGONAL, 1, DIAGONAL};
+
+    final int rows;
+    final int cols;
+
+    CellGraph(int rows, int cols)
+    {
+        if (rows < 0 || cols < 0 || (long)rows * cols > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Invalid grid %d x %d", rows, cols));
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @return the full rows x cols grid, with no edge stored
+     */
+    public static CellGraph grid(int rows, int cols)
+    {
+        return new GridGraph(rows, cols);
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @return the full rows x cols grid, in compressed sparse rows
+     */
+    public static CellGraph csr(int rows, int cols)
+    {
+        return CsrGraph.build(rows, cols, null, null);
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @param cells the cells present, bit y * cols + x standing for the cell
+     * at column x, row y (bits past rows * cols are ignored), or null for 
+     * all cells
+     * @param pool the pool to build on, or null to build sequentially
+     * @return the graph over the given cells, in compressed sparse rows
+     */
+    public static CellGraph csr(int rows, int cols, BitSet cells, ForkJoinPool pool)
+    {
+        return CsrGraph.build(rows, cols, cells, pool);
+    }
+
+    /**
+     * @return the number of rows of the grid
+     */
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns of the grid
+     */
+    public int getColumnCount()
+    {
+        return cols;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public abstract int getVertexCount();
+
+    /**
+     * @return the number of (undirected) edges
+     */
+    public abstract long getEdgeCount();
+
+    /**
+     * @return the largest degree a vertex can have (the length the arrays
+     * passed to getNeighbors need)
+     */
+    public int getMaxDegree()
+    {
+        return DX.length;
+    }
+
+    /**
+     * @param v vertex
+     * @return the number of neighbours of v
+     */
+    public abstract int getDegree(int v);
+
+    /**
+     * Reads the neighbours of v and the weights of the edges to them
+     *
+     * @param v vertex
+     * @param neighbors receives the neighbours, at least getMaxDegree() long
+     * @param weights receives the weights, at least getMaxDegree() long, or null
+     * @return the degree of v (the number of entries written)
+     */
+    public abstract int getNeighbors(int v, int[] neighbors, float[] weights);
+
+    /**
+     * @param v vertex
+     * @return the column of the cell of v
+     */
+    public abstract int getX(int v);
+
+    /**
+     * @param v vertex
+     * @return the row of the cell of v
+     */
+    public abstract int getY(int v);
+
+    /**
+     * @return the vertices as points, the id of each point being its vertex
+     * (so partition vectors, see PartitionTree.getPartition, are indexed by
+     * vertex)
+     */
+    public PointSet toPointSet()
+    {
+        final int n = getVertexCount();
+        int[] ids = new int[n];
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int v = 0; v < n; ++v)
+        {
+            ids[v] = v;
+            xs[v] = getX(v);
+            ys[v] = getY(v);
+        }
+        return PointSet.wrap(ids, xs, ys);
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A cell graph in compressed sparse rows (see CellGraph.csr): the
+ * neighbours of vertex v are targets[offsets[v], offsets[v + 1]), with the
+ * weights of the edges in the same range of weights. Each undirected edge
+ * is stored once from each end.
+ *
+ * The graph is built from the grid in two passes over the rows, both split
+ * into ranges of rows run in parallel on a pool: the degrees, then (after a
+ * prefix sum turning them into offsets) the neighbours.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class CsrGraph extends CellGraph
+{
+    /**
+     * Ranges of rows with fewer cells than this are built sequentially
+     */
+    public static final int CHUNK_SIZE = 65536;
+
+    //Read directly by the graph algorithms of this package
+    final int[] offsets;
+    final int[] targets;
+    final float[] weights;
+    private final int[] cells;   //cell of each vertex (y * cols + x), null for the full grid
+
+    CsrGraph(int rows, int cols, int[] offsets, int[] targets, float[] weights, int[] cells)
+    {
+        super(rows, cols);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.cells = cells;
+    }
+
+    static CsrGraph build(int rows, int cols, BitSet present, ForkJoinPool pool)
+    {
+        if (rows < 0 || cols < 0 || (long)rows * cols > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Invalid grid %d x %d", rows, cols));
+
+        //Number the cells present in row-major order
+        final int size = rows * cols;
+        int n = size;
+        int[] index = null;   //vertex of each cell, -1 if absent (null for the full grid)
+        int[] cells = null;
+        if (present != null)
+        {
+            index = new int[size];
+            Arrays.fill(index, -1);
+            n = 0;
+            for (int c = present.nextSetBit(0); c >= 0 && c < size; c = present.nextSetBit(c + 1))
+                index[c] = n++;
+            cells = new int[n];
+            for (int c = 0; c < size; ++c)
+                if (index[c] >= 0)
+                    cells[index[c]] = c;
+        }
+
+        //Pass 1: degree of v in offsets[v + 1]
+        int[] offsets = new int[n + 1];
+        run(new BuildTask(rows, cols, index, offsets, null, null, 0, rows, pool != null), pool);
+
+        long total = 0;
+        for (int v = 1; v <= n; ++v)
+        {
+            total += offsets[v];
+            if (total > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many edges for compressed sparse rows");
+            offsets[v] = (int)total;
+        }
+
+        //Pass 2: the neighbours
+        int[] targets = new int[(int)total];
+        float[] weights = new float[(int)total];
+        run(new BuildTask(rows, cols, index, offsets, targets, weights, 0, rows, pool != null), pool);
+
+        return new CsrGraph(rows, cols, offsets, targets, weights, cells);
+    }
+
+    private static void run(BuildTask task, ForkJoinPool pool)
+    {
+        if (pool == null)
+            task.compute();
+        else if (ForkJoinTask.getPool() == pool)
+            task.invoke();
+        else
+            pool.invoke(task);
+    }
+
+    @Override
+    public int getVertexCount()
+    {
+        return offsets.length - 1;
+    }
+
+    @Override
+    public long getEdgeCount()
+    {
+        return targets.length / 2;
+    }
+
+    @Override
+    public int getDegree(int v)
+    {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    @Override
+    public int getNeighbors(int v, int[] neighbors, float[] weights)
+    {
+        int from = offsets[v];
+        int degree = offsets[v + 1] - from;
+        System.arraycopy(targets, from, neighbors, 0, degree);
+        if (weights != null)
+            System.arraycopy(this.weights, from, weights, 0, degree);
+        return degree;
+    }
+
+    @Override
+    public int getX(int v)
+    {
+        return (cells == null ? v : cells[v]) % cols;
+    }
+
+    @Override
+    public int getY(int v)
+    {
+        return (cells == null ? v : cells[v]) / cols;
+    }
+
+    /**
+     * One pass over the rows [rowFrom, rowTo): the degrees if targets is
+     * null, the neighbours otherwise
+     */
+    @SuppressWarnings("serial")
+    private static class BuildTask extends RecursiveAction
+    {
+        private final int rows;
+        private final int cols;
+        private final int[] index;
+        private final int[] offsets;
+        private final int[] targets;
+        private final float[] weights;
+        private final int rowFrom;
+        private final int rowTo;
+        private final boolean fork;
+
+        BuildTask(int rows, int cols, int[] index, int[] offsets, int[] targets, float[] weights,
+                  int rowFrom, int rowTo, boolean fork)
+        {
+            this.rows = rows;
+            this.cols = cols;
+            this.index = index;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.fork = fork;
+        }
+
+        private int vertex(int x, int y)
+        {
+            return (index == null ? y * cols + x : index[y * cols + x]);
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (!fork || rowTo - rowFrom < 2 || (long)(rowTo - rowFrom) * cols <= CHUNK_SIZE)
+            {
+                for (int y = rowFrom; y < rowTo; ++y)
+                    for (int x = 0; x < cols; ++x)
+                    {
+                        int v = vertex(x, y);
+                        if (v >= 0)
+                            visit(v, x, y);
+                    }
+                return;
+            }
+
+            int mid = (rowFrom + rowTo) >>> 1;
+            invokeAll(new BuildTask(rows, cols, index, offsets, targets, weights, rowFrom, mid, fork),
+                      new BuildTask(rows, cols, index, offsets, targets, weights, mid, rowTo, fork));
+        }
+
+        private void visit(int v, int x, int y)
+        {
+            int degree = 0;
+            int pos = (targets == null ? 0 : offsets[v]);
+            for (int d = 0; d < DX.length; ++d)
+            {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (nx < 0 || nx >= cols || ny < 0 || ny >= rows)
+                    continue;
+                int u = vertex(nx, ny);
+                if (u < 0)
+                    continue;
+                if (targets == null)
+                    ++degree;
+                else
+                {
+                    targets[pos] = u;
+                    weights[pos] = WEIGHTS[d];
+                    ++pos;
+                }
+            }
+            if (targets == null)
+                offsets[v + 1] = degree;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The quality of a partition of a cell graph, measured on its edges:
+ *  - the edge cut: the total weight (and number) of the edges whose ends
+ *    are in different parts, and per part the weight of the edges leaving it;
+ *  - the boundary nodes: the vertices with a neighbour in another part;
+ *  - the communication volume: the sum, over the vertices, of the number of
+ *    other parts their neighbours are in (what each part has to send if
+ *    every vertex sends its value once to every other part that needs it).
+ *
+ * Everything is computed in one pass over the adjacency, split into chunks
+ * of CHUNK_SIZE vertices summed on a pool; the chunks are merged in a fixed
+ * order, so the result does not depend on the pool.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class EdgeCut
+{
+    /**
+     * Vertices per chunk of the pass
+     */
+    public static final int CHUNK_SIZE = 16384;
+
+    private final double[] partCut;
+    private final long[] partBoundary;
+    private final long[] partVolume;
+    private final long[] partSize;
+    private long cutEdges;   //each cut edge counted from both ends
+
+    private EdgeCut(int parts)
+    {
+        partCut = new double[parts];
+        partBoundary = new long[parts];
+        partVolume = new long[parts];
+        partSize = new long[parts];
+    }
+
+    /**
+     * @param graph
+     * @param labels the part of every vertex, in [0, parts)
+     * @param parts number of parts
+     * @param pool the pool to run the pass on, or null to run it sequentially
+     * @return the edge cut of the partition
+     */
+    public static EdgeCut of(CellGraph graph, int[] labels, int parts, ForkJoinPool pool)
+    {
+        final int n = graph.getVertexCount();
+        if (labels.length < n)
+            throw new IllegalArgumentException("There must be a label for every vertex");
+        for (int v = 0; v < n; ++v)
+            if (labels[v] < 0 || labels[v] >= parts)
+                throw new IllegalArgumentException(String.format("Vertex %d has label %d, not in [0, %d)", v, labels[v], parts));
+
+        EdgeCutTask task = new EdgeCutTask(graph, labels, parts, 0, n, pool != null);
+        if (pool == null)
+            return task.compute();
+        return (ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task));
+    }
+
+    /**
+     * @param graph
+     * @param tree a partition tree; each vertex is in the region that
+     * tree.locate finds for its cell
+     * @param pool the pool to run the pass on, or null
+     * @return the edge cut of the regions of the tree
+     */
+    public static EdgeCut of(CellGraph graph, PartitionTree tree, ForkJoinPool pool)
+    {
+        int[] labels = new int[graph.getVertexCount()];
+        for (int v = 0; v < labels.length; ++v)
+            labels[v] = tree.locate(graph.getX(v), graph.getY(v));
+        return of(graph, labels, tree.getRegionCount(), pool);
+    }
+
+    /**
+     * @param graph
+     * @param lines lines computed by getLines, in order
+     * @param pool the pool to run the pass on, or null
+     * @return the edge cut of the lines.size() + 1 regions of the lines
+     * (see getLabels)
+     */
+    public static EdgeCut of(CellGraph graph, List<Line> lines, ForkJoinPool pool)
+    {
+        return of(graph, getLabels(graph, lines), lines.size() + 1, pool);
+    }
+
+    /**
+     * Labels the vertices with the regions of lines computed by getLines.
+     *
+     * The lines alone do not tell which region each one divided; since
+     * every region is convex and holds the centroid (xbar, ybar) of its
+     * points, line j divided the region the earlier lines put its centroid
+     * in. Regions are numbered like PartitionTree numbers them (left side
+     * before right side).
+     *
+     * @param graph
+     * @param lines lines computed by getLines, in order
+     * @return the region of every vertex, in [0, lines.size() + 1)
+     */
+    public static int[] getLabels(CellGraph graph, List<Line> lines)
+    {
+        final int k = lines.size();
+        int[] labels = new int[graph.getVertexCount()];
+        if (k == 0)
+            return labels;
+
+        //children[2j] and children[2j + 1]: the lines dividing the left and
+        //right sides of line j, -1 for a region no line divides
+        Line[] ls = lines.toArray(new Line[k]);
+        int[] children = new int[2 * k];
+        Arrays.fill(children, -1);
+        for (int j = 1; j < k; ++j)
+        {
+            int slot = getSlot(ls, children, ls[j].getXbar(), ls[j].getYbar());
+            children[slot] = j;
+        }
+
+        //Number the undivided sides from left to right
+        int[] regions = new int[2 * k];
+        numberRegions(children, 0, regions, 0);
+
+        for (int v = 0; v < labels.length; ++v)
+            labels[v] = regions[getSlot(ls, children, graph.getX(v), graph.getY(v))];
+        return labels;
+    }
+
+    /**
+     * @return the undivided side (2j for the left of line j, 2j + 1 for its
+     * right) holding the point (x, y)
+     */
+    private static int getSlot(Line[] lines, int[] children, double x, double y)
+    {
+        int j = 0;
+        while (true)
+        {
+            int slot = 2 * j + (lines[j].getSideMembership(x, y) == SideMembership.LEFT ? 0 : 1);
+            if (children[slot] < 0)
+                return slot;
+            j = children[slot];
+        }
+    }
+
+    /**
+     * Numbers the undivided sides under line j, the first one next
+     *
+     * @return the number after the last one given
+     */
+    private static int numberRegions(int[] children, int j, int[] regions, int next)
+    {
+        for (int slot = 2 * j; slot <= 2 * j + 1; ++slot)
+        {
+            if (children[slot] < 0)
+                regions[slot] = next++;
+            else
+                next = numberRegions(children, children[slot], regions, next);
+        }
+        return next;
+    }
+
+    private void merge(EdgeCut other)
+    {
+        for (int p = 0; p < partCut.length; ++p)
+        {
+            partCut[p] += other.partCut[p];
+            partBoundary[p] += other.partBoundary[p];
+            partVolume[p] += other.partVolume[p];
+            partSize[p] += other.partSize[p];
+        }
+        cutEdges += other.cutEdges;
+    }
+
+    /**
+     * Adds a vertex of part p, whose neighbours are targets[from, to)
+     *
+     * @param seen scratch space for the other parts of the neighbours
+     */
+    private void add(int p, int[] labels, int[] targets, float[] weights, int from, int to, int[] seen)
+    {
+        partSize[p]++;
+        int others = 0;
+        for (int i = from; i < to; ++i)
+        {
+            int q = labels[targets[i]];
+            if (q == p)
+                continue;
+            partCut[p] += weights[i];
+            ++cutEdges;
+
+            int s = 0;
+            while (s < others && seen[s] != q)
+                ++s;
+            if (s == others)
+                seen[others++] = q;
+        }
+        if (others > 0)
+        {
+            partBoundary[p]++;
+            partVolume[p] += others;
+        }
+    }
+
+    /**
+     * @return the number of parts
+     */
+    public int getPartCount()
+    {
+        return partCut.length;
+    }
+
+    /**
+     * @return the total weight of the cut edges
+     */
+    public double getEdgeCut()
+    {
+        double cut = 0;
+        for (double c : partCut)
+            cut += c;
+        return cut / 2;
+    }
+
+    /**
+     * @return the number of cut edges
+     */
+    public long getCutEdgeCount()
+    {
+        return cutEdges / 2;
+    }
+
+    /**
+     * @param p part
+     * @return the total weight of the edges leaving part p
+     */
+    public double getPartEdgeCut(int p)
+    {
+        return partCut[p];
+    }
+
+    /**
+     * @return the largest getPartEdgeCut(p)
+     */
+    public double getMaxPartEdgeCut()
+    {
+        double max = 0;
+        for (double c : partCut)
+            max = Math.max(max, c);
+        return max;
+    }
+
+    /**
+     * @return the number of vertices with a neighbour in another part
+     */
+    public long getBoundaryNodeCount()
+    {
+        long count = 0;
+        for (long b : partBoundary)
+            count += b;
+        return count;
+    }
+
+    /**
+     * @param p part
+     * @return the number of vertices of part p with a neighbour in another part
+     */
+    public long getPartBoundaryNodeCount(int p)
+    {
+        return partBoundary[p];
+    }
+
+    /**
+     * @return the total communication volume
+     */
+    public long getCommunicationVolume()
+    {
+        long volume = 0;
+        for (long c : partVolume)
+            volume += c;
+        return volume;
+    }
+
+    /**
+     * @param p part
+     * @return the communication volume of part p: the sum, over its
+     * vertices, of the number of other parts their neighbours are in
+     */
+    public long getPartCommunicationVolume(int p)
+    {
+        return partVolume[p];
+    }
+
+    /**
+     * @return the largest getPartCommunicationVolume(p)
+     */
+    public long getMaxPartCommunicationVolume()
+    {
+        long max = 0;
+        for (long c : partVolume)
+            max = Math.max(max, c);
+        return max;
+    }
+
+    /**
+     * @param p part
+     * @return the number of vertices in part p
+     */
+    public long getPartSize(int p)
+    {
+        return partSize[p];
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("parts = %d; cut = %f (%d edges); boundary = %d; volume = %d (max %d)",
+                             getPartCount(), getEdgeCut(), getCutEdgeCount(), getBoundaryNodeCount(),
+                             getCommunicationVolume(), getMaxPartCommunicationVolume());
+    }
+
+    /**
+     * Sums the vertices [from, to) by halving the range down to CHUNK_SIZE
+     * and merging the halves, left first
+     */
+    @SuppressWarnings("serial")
+    private static class EdgeCutTask extends RecursiveTask<EdgeCut>
+    {
+        private final CellGraph graph;
+        private final int[] labels;
+        private final int parts;
+        private final int from;
+        private final int to;
+        private final boolean fork;
+
+        EdgeCutTask(CellGraph graph, int[] labels, int parts, int from, int to, boolean fork)
+        {
+            this.graph = graph;
+            this.labels = labels;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+            this.fork = fork;
+        }
+
+        @Override
+        protected EdgeCut compute()
+        {
+            if (to - from <= CHUNK_SIZE)
+                return sum();
+
+            int mid = (from + to) >>> 1;
+            EdgeCutTask left = new EdgeCutTask(graph, labels, parts, from, mid, fork);
+            EdgeCutTask right = new EdgeCutTask(graph, labels, parts, mid, to, fork);
+
+            EdgeCut cut;
+            if (fork)
+            {
+                right.fork();
+                cut = left.compute();
+                cut.merge(right.join());
+            }
+            else
+            {
+                cut = left.compute();
+                cut.merge(right.compute());
+            }
+            return cut;
+        }
+
+        private EdgeCut sum()
+        {
+            EdgeCut cut = new EdgeCut(parts);
+            int[] seen = new int[graph.getMaxDegree()];
+            if (graph instanceof CsrGraph)
+            {
+                //Straight from the adjacency arrays
+                CsrGraph csr = (CsrGraph)graph;
+                for (int v = from; v < to; ++v)
+                    cut.add(labels[v], labels, csr.targets, csr.weights, csr.offsets[v], csr.offsets[v + 1], seen);
+            }
+            else
+            {
+                int[] neighbors = new int[graph.getMaxDegree()];
+                float[] weights = new float[graph.getMaxDegree()];
+                for (int v = from; v < to; ++v)
+                {
+                    int degree = graph.getNeighbors(v, neighbors, weights);
+                    cut.add(labels[v], labels, neighbors, weights, 0, degree, seen);
+                }
+            }
+            return cut;
+        }
+    }
+}
@@ -0,0 +1,681 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Partitions point sets too large for the heap, stored in point files
+ * (see PointFile), by recursive bisection on disk.
+ *
+ * A region larger than memoryLimit points is bisected with a few sequential
+ * passes over its files, a chunk at a time:
+ *  1) moments pass: xbar, ybar, x1, x2, x3, hence a and b as in getLine
+ *  2) median passes: each pass counts the projections sj below a bracket
+ *     [lo, hi] known to hold the median, and samples the ones inside it;
+ *     the sample narrows the bracket for the next pass. Once the bracket
+ *     holds few enough values, they are kept and the median is selected
+ *     exactly. It usually takes two passes.
+ *  3) spill pass: every point is written to the file(s) of its half.
+ * Regions of at most memoryLimit points are loaded and handed to
+ * getPartitionTree, and their regions are written back to files.
+ *
+ * The lines are the same as getLine's (the moments of integer coordinates
+ * are exact, and sbar is the exact median). The k + 1 regions are shared
+ * between the two halves of a bisection in proportion to their weights;
+ * lines are listed in pre-order (a line before the lines of its halves).
+ *
+ * Weighted point files (see PointFile.hasWeights) are partitioned like
+ * weighted point sets: the moments are weighted, sbar is the weighted
+ * median, and the region files keep the weight column. If only some of
+ * the input files have weights, the points of the others weigh 1. The
+ * lines are then getLine's up to the rounding of the weighted sums, which
+ * are not added in the same order.
+ *
+ * Points of input files without an id column are numbered by their
+ * position in the inputs taken together (the first point of a file
+ * following the last of the file before it), so that every point written
+ * to a region file has its own id.
+ *
+ * Files written by the partitioner go to workDir; those of intermediate
+ * regions are deleted once bisected, the input files are never modified.
+ * Each file holds at most SEGMENT_SIZE points, a region may span several.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class ExternalPartitioner
+{
+    /**
+     * Points read at a time
+     */
+    public static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Projections sampled per median pass
+     */
+    public static final int SAMPLE_SIZE = 1 << 16;
+
+    /**
+     * Maximum number of points in one file written by the partitioner
+     */
+    public static final int SEGMENT_SIZE = 1 << 28;
+
+    private static final int MAX_MEDIAN_PASSES = 64;
+
+    private final File workDir;
+    private final int memoryLimit;
+    private final List<Line> lines = new ArrayList<Line>();
+    private final List<Region> regions = new ArrayList<Region>();
+    private int fileCount = 0;
+    private int passCount = 0;
+
+    /**
+     * @param workDir directory for the files of the regions
+     * @param memoryLimit the largest region (in points) partitioned in memory
+     */
+    public ExternalPartitioner(File workDir, int memoryLimit)
+    {
+        if (memoryLimit < 1)
+            throw new IllegalArgumentException("memoryLimit must be >= 1");
+        this.workDir = workDir;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Partitions the points of the given files into k + 1 regions, written
+     * to files (see getRegionFiles).
+     *
+     * @param inputs point files, taken together as one set
+     * @param k
+     * @return the k lines partitioning the points
+     * @throws Exception
+     */
+    public List<Line> getLines(List<File> inputs, int k) throws Exception
+    {
+        if (k < 1) throw new Exception("k must be >= 1");
+
+        lines.clear();
+        regions.clear();
+        passCount = 0;
+
+        long count = 0;
+        boolean weighted = false;
+        for (File file : inputs)
+        {
+            PointFile pointFile = PointFile.open(file);
+            count += pointFile.getCount();
+            weighted |= pointFile.hasWeights();
+        }
+
+        partition(new Region(new ArrayList<File>(inputs), count, count, weighted, false), k + 1);
+        return Collections.unmodifiableList(new ArrayList<Line>(lines));
+    }
+
+    /**
+     * Divides region into parts regions
+     */
+    private void partition(Region region, int parts) throws Exception
+    {
+        if (parts == 1)
+        {
+            regions.add(region);
+            return;
+        }
+        if (region.count <= memoryLimit)
+        {
+            partitionInMemory(region, parts);
+            return;
+        }
+
+        Region[] halves = new Region[2];
+        lines.add(bisect(region, halves));
+        region.deleteIfTemporary();
+
+        //Share of parts proportional to the weight of each half
+        double weight = halves[0].weight + halves[1].weight;
+        int leftParts = (weight > 0 ? (int)Math.round(parts * halves[0].weight / weight) : parts / 2);
+        leftParts = Math.max(1, Math.min(parts - 1, leftParts));
+        partition(halves[0], leftParts);
+        partition(halves[1], parts - leftParts);
+    }
+
+    private void partitionInMemory(Region region, int parts) throws Exception
+    {
+        final int N = (int)region.count;
+        final int[] ids = new int[N];
+        final int[] xs = new int[N];
+        final int[] ys = new int[N];
+        final double[] weights = (region.weighted ? new double[N] : null);
+        final int[] size = {0};
+        scan(region, new ChunkVisitor()
+        {
+            @Override
+            public void visit(int[] x, int[] y, int[] id, float[] w, int n)
+            {
+                System.arraycopy(x, 0, xs, size[0], n);
+                System.arraycopy(y, 0, ys, size[0], n);
+                System.arraycopy(id, 0, ids, size[0], n);
+                if (weights != null)
+                    for (int i = 0; i < n; ++i)
+                        weights[size[0] + i] = (w == null ? 1 : w[i]);
+                size[0] += n;
+            }
+        });
+        region.deleteIfTemporary();
+
+        PointSet points = (weights != null ? PointSet.wrap(ids, xs, ys, weights) : PointSet.wrap(ids, xs, ys));
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, parts - 1);
+        lines.addAll(tree.getLines());
+
+        for (int r = 0; r < tree.getRegionCount(); ++r)
+        {
+            RegionWriter writer = new RegionWriter(tree.getRegionTo(r) - tree.getRegionFrom(r), region.weighted);
+            for (int i = tree.getRegionFrom(r); i < tree.getRegionTo(r); ++i)
+                writer.add(xs[i], ys[i], ids[i], (float)points.getWeight(i));
+            regions.add(writer.close());
+        }
+    }
+
+    /**
+     * Computes the line dividing region and spills its two halves
+     *
+     * @param halves receives the left and the right half
+     */
+    private Line bisect(Region region, Region[] halves) throws Exception
+    {
+        //Moments
+        final Moments[] moments = new Moments[1];
+        scan(region, new ChunkVisitor()
+        {
+            @Override
+            public void visit(int[] xs, int[] ys, int[] ids, float[] weights, int n)
+            {
+                if (moments[0] == null)
+                    moments[0] = new Moments(xs[0], ys[0]);
+                for (int i = 0; i < n; ++i)
+                    moments[0].add(xs[i], ys[i], (weights == null ? 1 : weights[i]));
+            }
+        });
+
+        final double xbar = moments[0].getXbar();
+        final double ybar = moments[0].getYbar();
+        double[] axis = InertialPartitioner.getAxis(moments[0].getX1(), moments[0].getX2(), moments[0].getX3());
+        final double a = axis[0];
+        final double b = axis[1];
+
+        //Median
+        double[] median = (region.weighted
+                           ? findWeightedMedian(region, a, b, xbar, ybar, moments[0].getWeight())
+                           : findMedian(region, a, b, xbar, ybar));
+        final double sbar = median[0];
+        long leftCount = (long)median[1];
+
+        //Spill
+        final RegionWriter left = new RegionWriter(leftCount, region.weighted);
+        final RegionWriter right = new RegionWriter(region.count - leftCount, region.weighted);
+        scan(region, new ChunkVisitor()
+        {
+            @Override
+            public void visit(int[] xs, int[] ys, int[] ids, float[] weights, int n) throws IOException
+            {
+                for (int i = 0; i < n; ++i)
+                {
+                    double sj = Line.getSj(xs[i], ys[i], a, b, xbar, ybar);
+                    (sj < sbar ? left : right).add(xs[i], ys[i], ids[i], (weights == null ? 1 : weights[i]));
+                }
+            }
+        });
+        halves[0] = left.close();
+        halves[1] = right.close();
+
+        return new Line(a, b, xbar, ybar, sbar);
+    }
+
+    /**
+     * @return {sbar, the number of points with sj < sbar}
+     */
+    private double[] findMedian(Region region,
+                                final double a,
+                                final double b,
+                                final double xbar,
+                                final double ybar) throws IOException
+    {
+        final long N = region.count;
+        final long rankLo = (N - 1) / 2;
+        final long rankHi = N / 2;
+        final Random random = new Random(N);
+
+        double lo = Double.NEGATIVE_INFINITY;
+        double hi = Double.POSITIVE_INFINITY;
+        double outerLo = lo;
+        double outerHi = hi;
+        int margin = 2;
+
+        for (int pass = 0; pass < MAX_MEDIAN_PASSES; ++pass)
+        {
+            //Count below [lo, hi], sample and (while they fit) keep the values inside
+            final double bracketLo = lo;
+            final double bracketHi = hi;
+            final long[] counts = new long[2]; //below, inside
+            final double[] sample = new double[SAMPLE_SIZE];
+            final double[][] inside = {new double[Math.min(memoryLimit, 1024)]};
+            scan(region, new ChunkVisitor()
+            {
+                @Override
+                public void visit(int[] xs, int[] ys, int[] ids, float[] weights, int n)
+                {
+                    for (int i = 0; i < n; ++i)
+                    {
+                        double sj = Line.getSj(xs[i], ys[i], a, b, xbar, ybar);
+                        if (sj < bracketLo)
+                        {
+                            ++counts[0];
+                            continue;
+                        }
+                        if (sj > bracketHi)
+                            continue;
+
+                        long seen = counts[1]++;
+                        if (seen < SAMPLE_SIZE)
+                            sample[(int)seen] = sj;
+                        else
+                        {
+                            long r = (long)(random.nextDouble() * (seen + 1));
+                            if (r < SAMPLE_SIZE)
+                                sample[(int)r] = sj;
+                        }
+
+                        double[] values = inside[0];
+                        if (values != null && seen == values.length)
+                            values = inside[0] = (seen < memoryLimit
+                                                  ? Arrays.copyOf(values, (int)Math.min(memoryLimit, 2 * seen))
+                                                  : null);
+                        if (values != null)
+                            values[(int)seen] = sj;
+                    }
+                }
+            });
+            long below = counts[0];
+            long in = counts[1];
+
+            //The sample can miss: go back to the last bracket holding the median
+            if (below > rankLo || below + in <= rankHi)
+            {
+                lo = outerLo;
+                hi = outerHi;
+                margin *= 2;
+                continue;
+            }
+            outerLo = lo;
+            outerHi = hi;
+
+            double[] values = (in <= SAMPLE_SIZE ? sample : inside[0]);
+            if (values != null)
+            {
+                int n = (int)in;
+                double lower = MedianFinder.select(values, 0, n, (int)(rankLo - below));
+                double upper = MedianFinder.select(values, 0, n, (int)(rankHi - below));
+                double sbar = (lower + upper) / 2;
+                long left = below;
+                for (int i = 0; i < n; ++i)
+                    if (values[i] < sbar)
+                        ++left;
+                return new double[] {sbar, left};
+            }
+            if (lo == hi)
+                return new double[] {lo, below};
+
+            //Narrow the bracket around the ranks of the median in the sample
+            int s = SAMPLE_SIZE;
+            Arrays.sort(sample);
+            int pLo = (int)((double)(rankLo - below) * s / in);
+            int pHi = (int)((double)(rankHi - below) * s / in);
+            int d = margin * (int)Math.ceil(Math.sqrt(s));
+            double newLo = (pLo - d < 0 ? lo : sample[pLo - d]);
+            double newHi = (pHi + d >= s ? hi : sample[pHi + d]);
+            if (newLo == lo && newHi == hi)
+            {
+                //No progress (the bracket is full of equal values): try the estimate itself
+                newLo = sample[pLo];
+                newHi = sample[Math.min(pHi, s - 1)];
+            }
+            lo = newLo;
+            hi = newHi;
+        }
+
+        throw new IllegalStateException("Could not find the median of " + N + " points within "
+                                        + memoryLimit + " points of memory");
+    }
+
+    /**
+     * @return {sbar, the number of points with sj < sbar}, sbar being the
+     * weighted median of the sj (see MedianFinder.weightedMedian)
+     */
+    private double[] findWeightedMedian(Region region,
+                                        final double a,
+                                        final double b,
+                                        final double xbar,
+                                        final double ybar,
+                                        double total) throws IOException
+    {
+        if (!(total > 0))
+            throw new IllegalArgumentException("The total weight must be > 0");
+
+        final double target = total / 2;
+        final Random random = new Random(region.count);
+
+        double lo = Double.NEGATIVE_INFINITY;
+        double hi = Double.POSITIVE_INFINITY;
+        double outerLo = lo;
+        double outerHi = hi;
+        int margin = 2;
+
+        for (int pass = 0; pass < MAX_MEDIAN_PASSES; ++pass)
+        {
+            //As in findMedian, with the weights below and inside [lo, hi],
+            //and the smallest sj above it
+            final double bracketLo = lo;
+            final double bracketHi = hi;
+            final long[] counts = new long[2];        //below, inside
+            final double[] sums = {0, 0, 0};          //weight below, inside, above
+            final double[] above = {Double.NaN};
+            final double[] sample = new double[SAMPLE_SIZE];
+            final double[] sampleWeights = new double[SAMPLE_SIZE];
+            final double[][] inside = {new double[Math.min(memoryLimit, 1024)]};
+            final double[][] insideWeights = {new double[inside[0].length]};
+            scan(region, new ChunkVisitor()
+            {
+                @Override
+                public void visit(int[] xs, int[] ys, int[] ids, float[] weights, int n)
+                {
+                    for (int i = 0; i < n; ++i)
+                    {
+                        double sj = Line.getSj(xs[i], ys[i], a, b, xbar, ybar);
+                        double w = (weights == null ? 1 : weights[i]);
+                        if (sj < bracketLo)
+                        {
+                            ++counts[0];
+                            sums[0] += w;
+                            continue;
+                        }
+                        if (sj > bracketHi)
+                        {
+                            sums[2] += w;
+                            if (!(sj >= above[0]))
+                                above[0] = sj;
+                            continue;
+                        }
+
+                        sums[1] += w;
+                        long seen = counts[1]++;
+                        if (seen < SAMPLE_SIZE)
+                        {
+                            sample[(int)seen] = sj;
+                            sampleWeights[(int)seen] = w;
+                        }
+                        else
+                        {
+                            long r = (long)(random.nextDouble() * (seen + 1));
+                            if (r < SAMPLE_SIZE)
+                            {
+                                sample[(int)r] = sj;
+                                sampleWeights[(int)r] = w;
+                            }
+                        }
+
+                        double[] values = inside[0];
+                        if (values != null && seen == values.length)
+                        {
+                            int length = (int)Math.min(memoryLimit, 2 * seen);
+                            values = inside[0] = (seen < memoryLimit ? Arrays.copyOf(values, length) : null);
+                            insideWeights[0] = (values != null ? Arrays.copyOf(insideWeights[0], length) : null);
+                        }
+                        if (values != null)
+                        {
+                            values[(int)seen] = sj;
+                            insideWeights[0][(int)seen] = w;
+                        }
+                    }
+                }
+            });
+            long below = counts[0];
+            long in = counts[1];
+            double weightBelow = sums[0];
+            double weightIn = sums[1];
+
+            //The median is the first sj at which the running weight reaches target
+            if (weightBelow >= target || weightBelow + weightIn < target)
+            {
+                lo = outerLo;
+                hi = outerHi;
+                margin *= 2;
+                continue;
+            }
+            outerLo = lo;
+            outerHi = hi;
+
+            double[] values = (in <= SAMPLE_SIZE ? sample : inside[0]);
+            double[] weights = (in <= SAMPLE_SIZE ? sampleWeights : insideWeights[0]);
+            if (values != null)
+            {
+                //The weights outside the bracket stand as one value on
+                //either side, so the weighted median of the whole region is
+                //found among the values inside (or halfway to the next one)
+                int n = (int)in;
+                double[] all = Arrays.copyOf(values, n + 2);
+                double[] allWeights = Arrays.copyOf(weights, n + 2);
+                all[n] = Double.NEGATIVE_INFINITY;
+                allWeights[n] = weightBelow;
+                int size = n + 1;
+                if (!Double.isNaN(above[0]))
+                {
+                    all[size] = above[0];
+                    allWeights[size++] = sums[2];
+                }
+                double sbar = MedianFinder.weightedMedian(all, allWeights, 0, size);
+                long left = below;
+                for (int i = 0; i < n; ++i)
+                    if (values[i] < sbar)
+                        ++left;
+                return new double[] {sbar, left};
+            }
+
+            //Narrow the bracket around the weighted quantile of the sample
+            //where the median is expected, as findMedian does with ranks:
+            //cuts at steps of 1 / sqrt(SAMPLE_SIZE) of the sampled weight
+            final int parts = (int)Math.ceil(Math.sqrt(SAMPLE_SIZE));
+            double sampled = 0;
+            for (int i = 0; i < SAMPLE_SIZE; ++i)
+                sampled += sampleWeights[i];
+            double[] cuts = MedianFinder.quantiles(sample, (sampled > 0 ? sampleWeights : null), 0, SAMPLE_SIZE, parts);
+            double f = (target - weightBelow) / weightIn * parts;
+            int cLo = (int)Math.floor(f) - margin;
+            int cHi = (int)Math.ceil(f) + margin;
+            double newLo = (cLo < 1 ? lo : cuts[cLo - 1]);
+            double newHi = (cHi >= parts ? hi : cuts[cHi - 1]);
+            if (newLo == lo && newHi == hi)
+            {
+                //No progress: try the estimate itself
+                int c = Math.max(1, Math.min(parts - 1, (int)Math.round(f)));
+                newLo = newHi = cuts[c - 1];
+            }
+            lo = newLo;
+            hi = newHi;
+        }
+
+        throw new IllegalStateException("Could not find the median of " + region.count + " points within "
+                                        + memoryLimit + " points of memory");
+    }
+
+    private interface ChunkVisitor
+    {
+        /**
+         * @param weights null if the file has no weights
+         */
+        void visit(int[] xs, int[] ys, int[] ids, float[] weights, int n) throws IOException;
+    }
+
+    /**
+     * Reads all the points of region, a chunk at a time
+     */
+    private void scan(Region region, ChunkVisitor visitor) throws IOException
+    {
+        ++passCount;
+        long first = 0; //position of the first point of the file in the region
+        for (File file : region.files)
+        {
+            PointFile.Reader reader = new PointFile.Reader(file, CHUNK_SIZE);
+            try
+            {
+                //Without ids, the reader numbers the points of each file from 0
+                PointFile pointFile = reader.getPointFile();
+                if (!pointFile.hasIds() && first + pointFile.getCount() - 1 > Integer.MAX_VALUE)
+                    throw new IllegalStateException(file + ": the ids of its points would overflow");
+                int offset = (pointFile.hasIds() ? 0 : (int)first);
+
+                int n;
+                while ((n = reader.next()) > 0)
+                {
+                    int[] ids = reader.getIds();
+                    if (offset != 0)
+                        for (int i = 0; i < n; ++i)
+                            ids[i] += offset;
+                    visitor.visit(reader.getXs(), reader.getYs(), ids, reader.getWeights(), n);
+                }
+                first += pointFile.getCount();
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+    }
+
+    public int getRegionCount()
+    {
+        return regions.size();
+    }
+
+    /**
+     * @param r
+     * @return the files holding the points (with their ids) of region r
+     */
+    public List<File> getRegionFiles(int r)
+    {
+        return Collections.unmodifiableList(regions.get(r).files);
+    }
+
+    /**
+     * @param r
+     * @return the number of points in region r
+     */
+    public long getRegionSize(int r)
+    {
+        return regions.get(r).count;
+    }
+
+    /**
+     * @return the number of passes over region files done by the last getLines
+     */
+    public int getPassCount()
+    {
+        return passCount;
+    }
+
+    /**
+     * The points of a region, in one or more point files
+     */
+    private static final class Region
+    {
+        final List<File> files;
+        final long count;
+        final double weight;      //the count if unweighted
+        final boolean weighted;   //has weights, in some of its files at least
+        final boolean temporary;  //written by the partitioner
+
+        Region(List<File> files, long count, double weight, boolean weighted, boolean temporary)
+        {
+            this.files = files;
+            this.count = count;
+            this.weight = weight;
+            this.weighted = weighted;
+            this.temporary = temporary;
+        }
+
+        void deleteIfTemporary()
+        {
+            if (temporary)
+                for (File file : files)
+                    file.delete();
+        }
+    }
+
+    /**
+     * Writes the points of a region of known size, in files of at most
+     * SEGMENT_SIZE points
+     */
+    private final class RegionWriter
+    {
+        private final long count;
+        private final boolean weighted;
+        private final List<File> files = new ArrayList<File>();
+        private PointFile.Writer writer;
+        private int segmentSize;
+        private long written = 0;
+        private double weight = 0;
+
+        RegionWriter(long count, boolean weighted)
+        {
+            this.count = count;
+            this.weighted = weighted;
+        }
+
+        void add(int x, int y, int id, float w) throws IOException
+        {
+            if (writer == null || writer.getWritten() == segmentSize)
+            {
+                if (writer != null)
+                    writer.close();
+                File file = new File(workDir, String.format("region-%06d.pts", fileCount++));
+                segmentSize = (int)Math.min(SEGMENT_SIZE, count - written);
+                writer = new PointFile.Writer(file, segmentSize, true, weighted);
+                files.add(file);
+            }
+            writer.add(x, y, id, w);
+            weight += w;
+            ++written;
+        }
+
+        Region close() throws IOException
+        {
+            if (writer != null)
+                writer.close();
+            return new Region(files, count, (weighted ? weight : count), weighted, true);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * A PartitionTree compiled into flat primitive arrays, for classifying
+ * large batches of points.
+ *
+ * Internal node i (numbered in breadth-first order, the root is 0) holds
+ * a line: point (x, y) is on its left side if
+ * a[i] * (y - ybar[i]) - b[i] * (x - xbar[i]) < sbar[i].
+ * Its children are next[2 * i] (left side) and next[2 * i + 1] (right side):
+ * the index of an internal node if >= 0, otherwise ~r for region r.
+ * Breadth-first order keeps the top levels, which every point visits,
+ * together at the start of the arrays.
+ *
+ * A point gets exactly the region PartitionTree.locate gives it: sj is
+ * computed with the same expression as Line.getSideMembership.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class FlatPartitionTree
+{
+    private final double[] a;
+    private final double[] b;
+    private final double[] xbar;
+    private final double[] ybar;
+    private final double[] sbar;
+    private final int[] next;
+    private final int regionCount;
+
+    FlatPartitionTree(double[] a,
+                      double[] b,
+                      double[] xbar,
+                      double[] ybar,
+                      double[] sbar,
+                      int[] next,
+                      int regionCount)
+    {
+        this.a = a;
+        this.b = b;
+        this.xbar = xbar;
+        this.ybar = ybar;
+        this.sbar = sbar;
+        this.next = next;
+        this.regionCount = regionCount;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the id of the region containing the point (x, y)
+     */
+    public int classify(double x, double y)
+    {
+        int i = 0;
+        do
+        {
+            double sj = a[i] * (y - ybar[i]) - b[i] * (x - xbar[i]);
+            i = next[2 * i + (sj < sbar[i] ? 0 : 1)];
+        }
+        while (i >= 0);
+        return ~i;
+    }
+
+    /**
+     * Classifies the points (xs[j], ys[j]) for j in [0, xs.length)
+     *
+     * @param xs
+     * @param ys
+     * @param out receives the region id of each point
+     */
+    public void classifyBatch(double[] xs, double[] ys, int[] out)
+    {
+        classifyBatch(xs, ys, out, 0, xs.length);
+    }
+
+    /**
+     * Classifies the points (xs[j], ys[j]) for j in [from, to)
+     *
+     * @param xs
+     * @param ys
+     * @param out receives the region id of each point, out[j] for point j
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     */
+    public void classifyBatch(double[] xs, double[] ys, int[] out, int from, int to)
+    {
+        if (ys.length < to || out.length < to)
+            throw new IllegalArgumentException("xs, ys and out must hold at least " + to + " elements");
+
+        final double[] a = this.a, b = this.b, xbar = this.xbar, ybar = this.ybar, sbar = this.sbar;
+        final int[] next = this.next;
+
+        for (int j = from; j < to; ++j)
+        {
+            double x = xs[j];
+            double y = ys[j];
+            int i = 0;
+            do
+            {
+                double sj = a[i] * (y - ybar[i]) - b[i] * (x - xbar[i]);
+                i = next[2 * i + (sj < sbar[i] ? 0 : 1)];
+            }
+            while (i >= 0);
+            out[j] = ~i;
+        }
+    }
+
+    public int getRegionCount()
+    {
+        return regionCount;
+    }
+
+    /**
+     * @return the number of lines (internal nodes)
+     */
+    public int getLineCount()
+    {
+        return a.length;
+    }
+}
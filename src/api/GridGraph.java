@@ -0,0 +1,94 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * The full rows x cols grid (see CellGraph.grid): vertex v is the cell at
+ * column v % cols, row v / cols, and its neighbours are computed from the
+ * coordinates, so no edge is stored.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class GridGraph extends CellGraph
+{
+    GridGraph(int rows, int cols)
+    {
+        super(rows, cols);
+    }
+
+    @Override
+    public int getVertexCount()
+    {
+        return rows * cols;
+    }
+
+    @Override
+    public long getEdgeCount()
+    {
+        if (rows == 0 || cols == 0)
+            return 0;
+        //Horizontal, vertical, then both diagonals
+        return (long)rows * (cols - 1) + (long)(rows - 1) * cols + 2L * (rows - 1) * (cols - 1);
+    }
+
+    @Override
+    public int getDegree(int v)
+    {
+        int x = v % cols;
+        int y = v / cols;
+        int w = (x > 0 ? 1 : 0) + (x < cols - 1 ? 1 : 0) + 1;   //columns around x
+        int h = (y > 0 ? 1 : 0) + (y < rows - 1 ? 1 : 0) + 1;   //rows around y
+        return w * h - 1;
+    }
+
+    @Override
+    public int getNeighbors(int v, int[] neighbors, float[] weights)
+    {
+        int x = v % cols;
+        int y = v / cols;
+        int degree = 0;
+        for (int d = 0; d < DX.length; ++d)
+        {
+            int nx = x + DX[d];
+            int ny = y + DY[d];
+            if (nx < 0 || nx >= cols || ny < 0 || ny >= rows)
+                continue;
+            neighbors[degree] = ny * cols + nx;
+            if (weights != null)
+                weights[degree] = WEIGHTS[d];
+            ++degree;
+        }
+        return degree;
+    }
+
+    @Override
+    public int getX(int v)
+    {
+        return v % cols;
+    }
+
+    @Override
+    public int getY(int v)
+    {
+        return v / cols;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative longs (e.g. nanoseconds) with a fixed
+ * relative precision, after HdrHistogram: values below 2^SUB_BITS have a
+ * bucket each, larger values fall in 2^SUB_BITS buckets per power of two,
+ * so every value is known within 1 / 2^SUB_BITS (about 3%) whatever its
+ * magnitude. The buckets are a fixed AtomicLongArray: recording is a
+ * single atomic increment, with no lock and no allocation.
+ *
+ * Reads are not atomic with respect to concurrent records, which only
+ * matters for the last few values.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class Histogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+
+    private static int bucket(long value)
+    {
+        if (value < SUB_COUNT)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return the smallest value of the given bucket
+     */
+    private static long lowest(int bucket)
+    {
+        if (bucket < SUB_COUNT)
+            return bucket;
+        int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        long sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        return (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * @param value >= 0 (negative values are recorded as 0)
+     */
+    void record(long value)
+    {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        count.add(1);
+        total.add(value);
+    }
+
+    long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the values, 0 if there is none
+     */
+    double getMean()
+    {
+        long n = count.sum();
+        return (n == 0 ? 0 : (double)total.sum() / n);
+    }
+
+    /**
+     * @param q in [0, 1]
+     * @return the smallest value of the bucket holding the q-quantile, 0 if
+     * there are no values
+     */
+    long getQuantile(double q)
+    {
+        long n = 0;
+        for (int b = 0; b < BUCKETS; ++b)
+            n += counts.get(b);
+        if (n == 0)
+            return 0;
+
+        long target = Math.max(1, (long)Math.ceil(q * n));
+        long cumulative = 0;
+        for (int b = 0; b < BUCKETS; ++b)
+        {
+            cumulative += counts.get(b);
+            if (cumulative >= target)
+                return lowest(b);
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the smallest value of the highest non-empty bucket, 0 if
+     * there are no values
+     */
+    long getMax()
+    {
+        for (int b = BUCKETS - 1; b >= 0; --b)
+            if (counts.get(b) != 0)
+                return lowest(b);
+        return 0;
+    }
+
+    void reset()
+    {
+        for (int b = 0; b < BUCKETS; ++b)
+            counts.set(b, 0);
+        count.reset();
+        total.reset();
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the partition computed by getPartitionTree up to date while nodes
+ * are inserted, deleted or marked dead, without rerunning getLines.
+ *
+ * Only live nodes (getIsDead() == false) are partitioned. Every bisection
+ * keeps the running moments of its live nodes and the order-statistic
+ * index of their projections on its line. An event updates the bisections
+ * on the path from the root to the node's region and nothing else; the
+ * lines stay where they are until a bisection becomes unbalanced:
+ * |left - right| > (its imbalance when the line was computed) + tolerance * N.
+ * The subtree under the topmost such bisection is then rebuilt: a new line
+ * from the running moments, then new lines for the bisections below it.
+ * The shape of the tree, hence the number and ids of the regions, never
+ * changes.
+ *
+ * Lines are computed on the weights of the nodes (see Node.getWeight), but
+ * the imbalance that triggers a rebuild is counted in nodes.
+ *
+ * The coordinates and the weight of a node must not change while it is in
+ * the partition, and its isDead flag must be changed through setIsDead(Node, boolean).
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class IncrementalPartitioner
+{
+    private final double tolerance;
+    private final Region root;
+    private final List<Region> leaves = new ArrayList<Region>();
+    private final Set<Node> dead = new LinkedHashSet<Node>();
+    private int rebuildCount = 0;
+
+    /**
+     * Partitions the live nodes with k lines, as getPartitionTree does.
+     *
+     * @param nodes
+     * @param k
+     * @param tolerance rebuild a subtree once its imbalance grows by more
+     * than this fraction of its size
+     * @throws Exception
+     */
+    public IncrementalPartitioner(Collection<Node> nodes, int k, double tolerance) throws Exception
+    {
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException("tolerance must be >= 0");
+        this.tolerance = tolerance;
+
+        List<Node> live = new ArrayList<Node>(nodes.size());
+        for (Node node : nodes)
+        {
+            if (node.getIsDead())
+                dead.add(node);
+            else
+                live.add(node);
+        }
+
+        PointSet points = PointSet.fromNodes(live);
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, k);
+        root = toRegion(tree.getRoot(), points);
+    }
+
+    private Region toRegion(PartitionTree.TreeNode node, PointSet points)
+    {
+        Region region = new Region();
+        if (node.line == null)
+        {
+            region.nodes = new LinkedHashSet<Node>(points.toNodes(node.from, node.to));
+            region.id = leaves.size();
+            leaves.add(region);
+            return region;
+        }
+
+        region.setLine(node.line, points, node.from, node.line.getSplit(), node.to);
+        region.moments = Moments.of(points, node.from, node.to);
+        region.left = toRegion(node.left, points);
+        region.right = toRegion(node.right, points);
+        return region;
+    }
+
+    /**
+     * Adds the given node (to the dead nodes if node.getIsDead())
+     *
+     * @param node
+     * @throws Exception
+     */
+    public void insert(Node node) throws Exception
+    {
+        if (dead.contains(node) || findLeaf(node).nodes.contains(node))
+            throw new IllegalArgumentException(node + " is already in the partition");
+
+        if (node.getIsDead())
+            dead.add(node);
+        else
+            update(node, true);
+    }
+
+    /**
+     * Removes the given node
+     *
+     * @param node
+     * @return true if the node was in the partition
+     * @throws Exception
+     */
+    public boolean delete(Node node) throws Exception
+    {
+        if (dead.remove(node))
+            return true;
+        if (!findLeaf(node).nodes.contains(node))
+            return false;
+
+        update(node, false);
+        return true;
+    }
+
+    /**
+     * Sets the isDead flag of a node of the partition: a node marked dead
+     * leaves its region, a node marked alive again joins one.
+     *
+     * @param node
+     * @param isDead
+     * @throws Exception
+     */
+    public void setIsDead(Node node, boolean isDead) throws Exception
+    {
+        if (node.getIsDead() == isDead)
+            return;
+        if (!delete(node))
+            throw new IllegalArgumentException(node + " is not in the partition");
+
+        node.setIsDead(isDead);
+        insert(node);
+    }
+
+    /**
+     * Updates the moments and projections along the path of the given node,
+     * adds it to or removes it from its region, then rebuilds the topmost
+     * unbalanced bisection on the path, if any.
+     */
+    private void update(Node node, boolean add) throws Exception
+    {
+        double x = node.getX();
+        double y = node.getY();
+        Region unbalanced = null;
+
+        Region region = root;
+        while (region.line != null)
+        {
+            Line line = region.line;
+            double sj = Line.getSj(x, y, line.getA(), line.getB(), line.getXbar(), line.getYbar());
+            if (add)
+            {
+                region.moments.add(x, y, node.getWeight());
+                region.projections.add(sj);
+            }
+            else
+            {
+                region.moments.remove(x, y, node.getWeight());
+                region.projections.remove(sj);
+            }
+
+            if (unbalanced == null && region.isUnbalanced(tolerance))
+                unbalanced = region;
+            region = (sj < line.getSbar() ? region.left : region.right);
+        }
+
+        if (add)
+            region.nodes.add(node);
+        else
+            region.nodes.remove(node);
+
+        if (unbalanced != null)
+            rebuild(unbalanced);
+    }
+
+    /**
+     * Recomputes the lines of the subtree under the given bisection
+     */
+    private void rebuild(Region region) throws Exception
+    {
+        List<Node> live = new ArrayList<Node>(region.projections.size());
+        collectNodes(region, live);
+        PointSet points = PointSet.fromNodes(live);
+        rebuild(region, points, 0, points.size(), region.moments);
+        ++rebuildCount;
+    }
+
+    /**
+     * @param moments the moments of points [from, to)
+     */
+    private static void rebuild(Region region, PointSet points, int from, int to, Moments moments) throws Exception
+    {
+        if (region.line == null)
+        {
+            region.nodes = new LinkedHashSet<Node>(points.toNodes(from, to));
+            return;
+        }
+
+        int split;
+        if (to - from >= 2)
+        {
+            Line line = InertialPartitioner.getLine(points, from, to, moments);
+            split = line.getSplit();
+            region.setLine(line, points, from, split, to);
+        }
+        else //too few nodes for a line: keep the current one
+        {
+            split = points.partition(region.line, from, to);
+            region.setLine(region.line, points, from, split, to);
+        }
+        region.moments = moments;
+
+        rebuild(region.left, points, from, split, Moments.of(points, from, split));
+        rebuild(region.right, points, split, to, Moments.of(points, split, to));
+    }
+
+    private static void collectNodes(Region region, List<Node> nodes)
+    {
+        if (region.line == null)
+            nodes.addAll(region.nodes);
+        else
+        {
+            collectNodes(region.left, nodes);
+            collectNodes(region.right, nodes);
+        }
+    }
+
+    private Region findLeaf(Node node)
+    {
+        return leaves.get(locate(node.getX(), node.getY()));
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the id of the region containing the point (x, y)
+     */
+    public int locate(double x, double y)
+    {
+        Region region = root;
+        while (region.line != null)
+            region = (region.line.getSideMembership(x, y) == SideMembership.LEFT ? region.left : region.right);
+        return region.id;
+    }
+
+    /**
+     * @return the current lines, one per bisection, in pre-order (root first)
+     */
+    public List<Line> getLines()
+    {
+        List<Line> lines = new ArrayList<Line>(leaves.size() - 1);
+        collectLines(root, lines);
+        return lines;
+    }
+
+    private static void collectLines(Region region, List<Line> lines)
+    {
+        if (region.line != null)
+        {
+            lines.add(region.line);
+            collectLines(region.left, lines);
+            collectLines(region.right, lines);
+        }
+    }
+
+    public int getRegionCount()
+    {
+        return leaves.size();
+    }
+
+    /**
+     * @param r
+     * @return the live nodes of region r
+     */
+    public List<Node> getRegion(int r)
+    {
+        return new ArrayList<Node>(leaves.get(r).nodes);
+    }
+
+    /**
+     * @return the nodes marked dead
+     */
+    public List<Node> getDeadNodes()
+    {
+        return new ArrayList<Node>(dead);
+    }
+
+    /**
+     * @return the number of live nodes
+     */
+    public int size()
+    {
+        return root.projections.size();
+    }
+
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+    /**
+     * @return the number of subtrees rebuilt so far
+     */
+    public int getRebuildCount()
+    {
+        return rebuildCount;
+    }
+
+    /**
+     * A region of the partition: a bisection (line != null) or a leaf
+     */
+    private static final class Region
+    {
+        Line line;                  //null for a leaf
+        Region left;
+        Region right;
+        Moments moments;            //of the live nodes under a bisection
+        ProjectionIndex projections; //their sj on line
+        int builtImbalance;         //|left - right| when line was computed
+        LinkedHashSet<Node> nodes;  //live nodes of a leaf
+        int id = -1;                //region id of a leaf
+
+        /**
+         * Sets the line dividing points [from, to) into [from, split) and [split, to)
+         */
+        void setLine(Line line, PointSet points, int from, int split, int to)
+        {
+            this.line = line;
+            projections = ProjectionIndex.of(line, points, from, to);
+            builtImbalance = Math.abs((split - from) - (to - split));
+        }
+
+        boolean isUnbalanced(double tolerance)
+        {
+            int n = projections.size();
+            int left = projections.rank(line.getSbar());
+            return Math.abs(left - (n - left)) > builtImbalance + tolerance * n;
+        }
+    }
+}
@@ -22,9 +22,10 @@
 package api;
 
 import java.util.*;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.SimpleWeightedGraph;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * @author              Vy Thuy Nguyen
@@ -35,6 +36,12 @@ public class InertialPartitioner
 {
     
     public static final double EPSILON = 0.001; //to compare to double;
+    
+    //Regions smaller than this are not split in parallel by getLinesParallel
+    public static final int PARALLEL_THRESHOLD = 8192;
+    
+    private static volatile PartitionListener listener = null;
+    private static volatile PartitionMetrics metrics = null;
         
     /**
      * Given a graph, this function returns the line L that partitions the graph
@@ -52,6 +59,7 @@ public class InertialPartitioner
      *    x1 = Sigmar[(xi - xbar)^2 i = [0, N - 1]]
      *    x2 = Sigmar[(xi - xbar) * (yi - ybar) i = [0, N - 1]]
      *    x3 = Sigmar[(yi - ybar)^2 i = [0, N - 1]]
+     *    Steps 1) and 2) are done in a single pass over the nodes (see Moments).
      * 
      * 3) Compute lambda (the smallest eigenvalue of the 2x2 matrix A = [x1 x2, x2 x3])
      *    Let I be the 2x2 identity matrix, v = [a, b] be the 2x1 eigenvector corresponding
@@ -64,7 +72,9 @@ public class InertialPartitioner
      *   <=> (x1 - lambda)(x3 - lambda) - x2 ^ 2 = 0
      *   <=> lambda ^ 2 - (x1 + x3) * lambda + x1 * x3 - x2^2 = 0
      *   Solve this equation and get the smallest solution. 
-     *   An exception is thrown if no solution is found.
+     *   Since A is symmetric, the discriminant (x1 - x3)^2 + 4 * x2^2 is never
+     *   negative and the smallest solution is computed directly as
+     *   lambda = (x1 + x3) / 2 - sqrt(((x1 - x3) / 2)^2 + x2^2)
      * 
      * 4) Compute vector v = [a, b] (the eigenvector corresponding to lambda)
      *    As mentioned above, (A - lambda * I) * v = 0
@@ -88,13 +98,18 @@ public class InertialPartitioner
      *    An exception also is thrown if the system falls into the 1st or 3rd case.
      * 
      * 5) Compute sbar
-     *    Compute sj for each node in the graph. Store these values in a linked 
-     *    list l in ascending order.
-     *    Sbar = median(l)
+     *    Compute sj for each node in the graph. Store these values in an array l.
+     *    Sbar = median(l), found by selection in expected O(N) (see MedianFinder)
      *    In other words, 
-     *      - if the list l has even number of elements, sbar is the average of the
-     *        middle two elements.
-     *      - if the list l has odd number of elements, sbar is the middle element.
+     *      - if the array l has even number of elements, sbar is the average of the
+     *        middle two elements (in sorted order).
+     *      - if the array l has odd number of elements, sbar is the middle element.
+     * 
+     * Weighted nodes (see Node.getWeight): every sum above is weighted, N being 
+     * the total weight W = Sigmar(wi), e.g. xbar = Sigmar(wi * xi) / W and 
+     * x1 = Sigmar[wi * (xi - xbar)^2], and sbar is the weighted median of l 
+     * (see MedianFinder.weightedMedian), so both sides of the line carry about 
+     * half of the total weight. With unit weights nothing changes.
      * 
      * @param g
      * @return Line l
@@ -102,55 +117,232 @@ public class InertialPartitioner
      */
     public static Line getLine(Collection<Node> nodes) throws Exception
     {
-        //Compute xbar and ybar
-        double xbar = 0, ybar = 0;
-        final int N = nodes.size();
-        
-        for (Node node : nodes)
+        return getLine(PointSet.fromNodes(nodes));
+    }
+    
+    /**
+     * Same as getLine(Collection<Node>) for all the points of the given set,
+     * which is partitioned in place (see getLine(PointSet, int, int)).
+     * 
+     * @param points
+     * @return Line l
+     * @throws Exception 
+     */
+    public static Line getLine(PointSet points) throws Exception
+    {
+        return getLine(points, 0, points.size());
+    }
+    
+    /**
+     * Same as getLine(Collection<Node>) for the points [from, to) of the 
+     * given set. 
+     * The points in [from, to) are reordered in place, quicksort-partition 
+     * style, so that [from, l.getSplit()) is the left side of the returned 
+     * line l and [l.getSplit(), to) its right side.
+     * 
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return Line l
+     * @throws Exception 
+     */
+    public static Line getLine(PointSet points, int from, int to) throws Exception
+    {
+        PartitionListener l = listener;
+        long start = (l == null && metrics == null ? 0 : System.nanoTime());
+        return getLine(points, from, to, Moments.of(points, from, to), 0, null, l, start);
+    }
+    
+    /**
+     * Same as getLine(PointSet, int, int), with the moments of large regions
+     * accumulated in parallel on the given pool. The line is exactly the 
+     * same as the sequential one.
+     * 
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param pool
+     * @return Line l
+     * @throws Exception 
+     */
+    public static Line getLine(PointSet points, int from, int to, ForkJoinPool pool) throws Exception
+    {
+        PartitionListener l = listener;
+        long start = (l == null && metrics == null ? 0 : System.nanoTime());
+        return getLine(points, from, to, Moments.of(points, from, to, pool), 0, null, l, start);
+    }
+    
+    /**
+     * Same as getLine(PointSet, int, int), except that sbar is an 
+     * approximate median: the (1/2)-quantile of a QuantileSketch of the sj, 
+     * whose rank is off by about rankError * N at most, with high 
+     * probability. The side of each point is still decided by sj < sbar, so
+     * the split is exact for the line returned; getImbalance() of the line 
+     * tells the balance achieved (about 2 * rankError at most).
+     * Weighted points (see PointSet.hasWeights) always get the exact weighted
+     * median, the sketch counting values rather than weights.
+     * 
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param rankError bound on the rank error of sbar, as a fraction of N
+     * @return Line l
+     * @throws Exception 
+     */
+    public static Line getApproximateLine(PointSet points, int from, int to, double rankError) throws Exception
+    {
+        QuantileSketch.getK(rankError); //checks rankError
+        PartitionListener l = listener;
+        long start = (l == null && metrics == null ? 0 : System.nanoTime());
+        return getLine(points, from, to, Moments.of(points, from, to), rankError, null, l, start);
+    }
+    
+    /**
+     * Same as getApproximateLine(PointSet, int, int, double), with the 
+     * moments and the sketches of large regions computed in parallel: a 
+     * sketch per chunk, merged in a fixed order, so the line is exactly 
+     * the same as the sequential one.
+     * 
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param rankError bound on the rank error of sbar, as a fraction of N
+     * @param pool
+     * @return Line l
+     * @throws Exception 
+     */
+    public static Line getApproximateLine(PointSet points, int from, int to, double rankError, ForkJoinPool pool) throws Exception
+    {
+        QuantileSketch.getK(rankError); //checks rankError
+        PartitionListener l = listener;
+        long start = (l == null && metrics == null ? 0 : System.nanoTime());
+        return getLine(points, from, to, Moments.of(points, from, to, pool), rankError, pool, l, start);
+    }
+    
+    /**
+     * Same as getLine(PointSet, int, int), with the moments of the points
+     * [from, to) already known (e.g. kept up to date by IncrementalPartitioner)
+     * 
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param moments the moments of the points [from, to)
+     * @return Line l
+     * @throws Exception 
+     */
+    static Line getLine(PointSet points, int from, int to, Moments moments) throws Exception
+    {
+        PartitionListener l = listener;
+        long start = (l == null && metrics == null ? 0 : System.nanoTime());
+        return getLine(points, from, to, moments, 0, null, l, start);
+    }
+    
+    /**
+     * @param rankError 0 for the exact median, otherwise see getApproximateLine
+     * @param pool the pool to build the sketches on, or null
+     * @param l the listener to notify, or null
+     * @param start System.nanoTime() when the computation started (if l != null
+     * or metrics are on), 0 otherwise
+     */
+    private static Line getLine(PointSet points, 
+                                int from, 
+                                int to, 
+                                Moments moments, 
+                                double rankError,
+                                ForkJoinPool pool,
+                                PartitionListener l, 
+                                long start) throws Exception
+    {
+        PartitionMetrics m = metrics;
+        long t0 = 0, allocated = 0;
+        if (m != null)
         {
-            xbar += node.getX();
-            ybar += node.getY();
+            t0 = System.nanoTime();
+            allocated = PartitionMetrics.getAllocatedBytes();
         }
         
-        System.out.printf("Sigma x = %f; Sigma y = %f\n", xbar, ybar);
-        xbar /= N;
-        ybar /= N;
-        System.out.printf("Done computing xbar and ybar; xbar = %f, ybar = %f\n",
-                          xbar,
-                          ybar);
+        //Compute xbar and ybar
+        final int N = to - from;
+        double xbar = moments.getXbar();
+        double ybar = moments.getYbar();
         
         //Compute sum of squares of distance (x1, x2 and x3)
-        double x1 = 0, x3 = 0, x2 = 0;
-        double xDif = 0, yDif = 0;
-        for (Node node : nodes)
+        double x1 = moments.getX1();
+        double x2 = moments.getX2();
+        double x3 = moments.getX3();
+        
+        //Compute a and b
+        double[] axis = getAxis(x1, x2, x3);
+        double a = axis[0];
+        double b = axis[1];
+        double lambda = axis[2];
+        long t1 = (m == null ? 0 : System.nanoTime());
+        
+        //Compute sbar
+        double sbar;
+        if (rankError > 0 && !points.hasWeights())
         {
-            xDif = node.getX() - xbar;
-            yDif = node.getY() - ybar;
-            x1 += xDif * xDif;
-            x3 += yDif * yDif;
-            x2 += xDif * yDif;
+            SketchTask task = new SketchTask(points, from, to, a, b, xbar, ybar, QuantileSketch.getK(rankError), pool != null);
+            QuantileSketch sketch;
+            if (pool == null)
+                sketch = task.compute();
+            else
+                sketch = (ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task));
+            sbar = sketch.getQuantile(0.5);
+        }
+        else
+        {
+            double[] sValues = new double[N];
+            points.project(from, to, a, b, xbar, ybar, sValues, 0);
+            
+            if (points.hasWeights())
+            {
+                //Weighted median: the weights on either side of the line are balanced
+                double[] sWeights = new double[N];
+                for (int i = from; i < to; ++i)
+                    sWeights[i - from] = points.getWeight(i);
+                sbar = MedianFinder.weightedMedian(sValues, sWeights, 0, N);
+            }
+            else
+                sbar = MedianFinder.median(sValues, 0, N);
         }
-        System.out.printf("Done computing x1, x2 and x3; x1 = %f, x2 = %f, x3 = %f\n",
-                           x1,
-                           x2,
-                           x3);
         
-        //Compute a and b
-        double a, b, lambda;
-        ArrayList<Double> sols = getSolutions(1, //a
-                                              0 - x1 - x3, //b
-                                              x1 * x3 - x2 * x2); //c
-        if (sols.isEmpty())
-            throw new Exception("No eigenvalue found!");
-//        System.out.printf("Done finding eigenvalues; lambda1 = %f, lambda2 = %f\n",
-//                          sols.get(0),
-//                          sols.get(1));
+        long t2 = (m == null ? 0 : System.nanoTime());
         
-        lambda = Math.min(sols.get(0), sols.get(1));
-        System.out.printf("The smallest eigenvalue is: lambda = %f\n", lambda);
+        Line line = new Line(a, b, xbar, ybar, sbar, points, from, to);
+        if (m != null)
+        {
+            long t3 = System.nanoTime();
+            long[] phases = {start == 0 ? 0 : t0 - start, t1 - t0, t2 - t1, t3 - t2};
+            if (allocated >= 0)
+                allocated = PartitionMetrics.getAllocatedBytes() - allocated;
+            m.recordBisection(N, phases, allocated, line.getImbalance());
+        }
+        if (l != null)
+            l.bisected(from, to, moments, lambda, line, System.nanoTime() - start);
+        return line;
+    }
+    
+    /**
+     * Steps 3 and 4 of getLine: the smallest eigenvalue lambda of 
+     * [x1 x2, x2 x3] and its eigenvector [a, b]
+     * 
+     * @param x1
+     * @param x2
+     * @param x3
+     * @return {a, b, lambda}
+     * @throws Exception 
+     */
+    static double[] getAxis(double x1, double x2, double x3) throws Exception
+    {
+        double a, b, lambda;
+        double halfDif = (x1 - x3) / 2;
+        lambda = (x1 + x3) / 2 - Math.sqrt(halfDif * halfDif + x2 * x2);
         
         //Compute a, b
-        if (Math.abs(x2 * x2 - (x1 - lambda) * (x3 - lambda)) > EPSILON) //If the system doesn't have inf. number of solultions
+        //(the determinant is compared relative to the magnitude of its terms)
+        double scale = Math.max(1, (x1 + x3) * (x1 + x3));
+        if (Math.abs(x2 * x2 - (x1 - lambda) * (x3 - lambda)) > EPSILON * scale) //If the system doesn't have inf. number of solultions
             throw new Exception("The system must have inf. number of solutions. Otherwise, the eigenvector would be [0, 0]"
                                 + String.format("\nx1 = %f, x2 = %f, x3 = %f", x1, x2, x3));
         
@@ -165,94 +357,540 @@ public class InertialPartitioner
             b = 0;
         }
         
-        //Compute sbar
-        LinkedList<Double> sValues = new LinkedList<Double>();
-        double sj = 0;
-        int max, min, mid, size;
-        for (Node node : nodes)
-        {
-            sj = Line.getSj(node, a, b, xbar, ybar);
-            if (sValues.isEmpty())
-                sValues.add(sj);
-            else
-            {
-                min = 0;
-                max = sValues.size() - 1;
-                while (max >= min)
-                {
-                    mid = (min + max) / 2;
-                    if (sj < sValues.get(mid))
-                        max = mid - 1;
-                    else if (sj > sValues.get(mid))
-                        min = mid + 1;
-                    else
-                    {
-                        min = mid;
-                        break;
-                    }
-                }   
-                sValues.add(min, sj);               
-            }
-        } //end for-each node
-        
-        size = sValues.size();
-        double sbar = (size % 2 == 0 //If even number of elements
-                        ? (sValues.get(size / 2) + sValues.get(size / 2 - 1)) / 2 //Take the avg of the two middle elements
-                        : sValues.get(size / 2 )); //Otherwise, take the middle element
-        
-        return new Line(a, b, xbar, ybar, sbar, nodes);
+        return new double[] {a, b, lambda};
+    }
+    
+    /**
+     * Registers the listener notified after every bisection (by getLine, 
+     * getLines and getLinesParallel), replacing the previous one.
+     * With no listener (null, the default), nothing is timed or recorded.
+     * 
+     * @param l the listener, or null to remove it
+     */
+    public static void setListener(PartitionListener l)
+    {
+        listener = l;
+    }
+    
+    /**
+     * @return the registered listener, or null
+     */
+    public static PartitionListener getListener()
+    {
+        return listener;
+    }
+    
+    /**
+     * Turns on the collection of runtime metrics by getLine, getLines and
+     * getLinesParallel into the given registry (see PartitionMetrics),
+     * replacing the previous one.
+     * With no metrics (null, the default), nothing is timed or recorded.
+     * 
+     * @param m the metrics, or null to turn them off
+     */
+    public static void setMetrics(PartitionMetrics m)
+    {
+        metrics = m;
+    }
+    
+    /**
+     * @return the registered metrics, or null
+     */
+    public static PartitionMetrics getMetrics()
+    {
+        return metrics;
     }
  
+    /**
+     * Same as getLines(Collection<Node>, int, SplitPolicy) with the 
+     * default policy SplitPolicy.WEIGHT.
+     */
     public static List<Line> getLines(Collection<Node> nodes, int k) throws Exception
+    {
+        return getLines(nodes, k, SplitPolicy.WEIGHT);
+    }
+    
+    /**
+     * Same as getLines(Collection<Node>, int), also filling the partition 
+     * vector: partition[id] is set to the region of the node with that id 
+     * (see PartitionTree.getPartition). Node ids must be distinct and in 
+     * [0, partition.length).
+     * 
+     * @param nodes
+     * @param k
+     * @param partition indexed by node id
+     * @return the k lines partitioning the nodes
+     * @throws Exception 
+     */
+    public static List<Line> getLines(Collection<Node> nodes, int k, int[] partition) throws Exception
+    {
+        PartitionTree tree = getPartitionTree(PointSet.fromNodes(nodes), k);
+        tree.getPartition(partition);
+        return tree.getLines();
+    }
+    
+    /**
+     * Partitions the nodes into k + 1 regions with k lines: the first line 
+     * bisects all the nodes, then the region that the policy ranks first 
+     * is bisected, k times in all (see getLines(PointSet, int, SplitPolicy)).
+     * 
+     * @param nodes
+     * @param k
+     * @param policy
+     * @return the k lines partitioning the nodes
+     * @throws Exception 
+     */
+    public static List<Line> getLines(Collection<Node> nodes, int k, SplitPolicy policy) throws Exception
+    {
+        //All regions are ranges [from, to) of this one set, partitioned in place
+        return getLines(PointSet.fromNodes(nodes), k, policy);
+    }
+    
+    /**
+     * Same as getLines(Collection<Node>, int) for a point set.
+     * Every region is a range [from, to) of the given set: splitting a region 
+     * reorders its points in place so that the left part comes first, thus 
+     * no point is ever copied. When this method returns, the points of each 
+     * of the k + 1 regions are contiguous in the set.
+     * 
+     * Regions are split heaviest first (largest first if the points carry 
+     * no weights); among regions of the same weight, the one that comes 
+     * first in the set is split first.
+     * 
+     * @param points
+     * @param k
+     * @return the k lines partitioning the points
+     * @throws Exception 
+     */
+    public static List<Line> getLines(PointSet points, int k) throws Exception
+    {
+        return getPartitionTree(points, k).getLines();
+    }
+    
+    /**
+     * Same as getLines(PointSet, int), the region to split next being the 
+     * one with the highest priority under the given policy (ties broken by
+     * position in the set).
+     * 
+     * @param points
+     * @param k
+     * @param policy
+     * @return the k lines partitioning the points
+     * @throws Exception 
+     */
+    public static List<Line> getLines(PointSet points, int k, SplitPolicy policy) throws Exception
+    {
+        return getPartitionTree(points, k, policy).getLines();
+    }
+    
+    /**
+     * Partitions the points like getLines(PointSet, int) and returns the 
+     * tree of bisections: its lines (in the order getLines returns them),
+     * the k + 1 regions, and locate(x, y) to find the region of a point in
+     * O(depth).
+     * 
+     * @param points
+     * @param k
+     * @return the partition tree
+     * @throws Exception 
+     */
+    public static PartitionTree getPartitionTree(PointSet points, int k) throws Exception
+    {
+        return getPartitionTree(points, k, SplitPolicy.WEIGHT);
+    }
+    
+    /**
+     * Same as getPartitionTree(PointSet, int), the regions being split in 
+     * the order of the given policy (see getLines(PointSet, int, SplitPolicy)).
+     * 
+     * @param points
+     * @param k
+     * @param policy
+     * @return the partition tree
+     * @throws Exception 
+     */
+    public static PartitionTree getPartitionTree(PointSet points, int k, SplitPolicy policy) throws Exception
     {
         if (k < 1) throw new Exception("k must be >= 1");
         
         ArrayList<Line> lines = new ArrayList<Line>();
-        TreeSet<Collection<Node>> subRegions = new TreeSet<Collection<Node>>(new Comparator() {
-            @Override
-            /**
-             * @return -1 if o1.size < o2.size; 0 if o1.size == o2.size; 1 if o1.size > o2.size
-             */
-            public int compare(Object o1, Object o2)
-            {
-                Collection<Node> list1 = (Collection<Node>)o1;
-                Collection<Node> list2 = (Collection<Node>)o2;
-                return (list1.size() > list2.size() ? 
-                        1 :
-                        (list1.size() == list2.size() ? 0 : -1));
-            }
-            
-        });
+        SplitScheduler<PartitionTree.TreeNode> subRegions = new SplitScheduler<PartitionTree.TreeNode>(points, policy);
         
         //Line 1
-        Line line = getLine(nodes);
+        PartitionTree.TreeNode root = new PartitionTree.TreeNode(0, points.size());
+        Line line = getLine(points);
         lines.add(line);
-        subRegions.add(line.getLeftNodes());
-        subRegions.add(line.getRightNodes());
+        root.split(line);
+        subRegions.add(root.left, root.left.from, root.left.to);
+        subRegions.add(root.right, root.right.from, root.right.to);
         k--;
         
         for (int i = 0; i < k; ++i)
         {
-           //Find the greatest set
-            Collection<Node> largestList = subRegions.last();
-            System.out.printf("\nLargest region has %d nodes\n", largestList.size());
-            for (Node n : largestList) System.out.printf("%s; ", n);
-            System.out.println("\n");
+            //Find the region to split next
+            PartitionTree.TreeNode next = subRegions.poll();
+            PartitionMetrics m = metrics;
+            if (m != null)
+                m.recordQueueDepth(subRegions.size());
             
-            //Line dividing this set
-            line = getLine(largestList);
+            //Line dividing this region
+            line = getLine(points, next.from, next.to);
             lines.add(line);
             
-            //replace the old large region by two newly partitioned regions
-            boolean res = subRegions.remove(largestList);
-            System.out.println("removing ok? " + res);
-            subRegions.add(line.getLeftNodes());
-            subRegions.add(line.getRightNodes());
+            //replace the old region by two newly partitioned regions
+            next.split(line);
+            subRegions.add(next.left, next.left.from, next.left.to);
+            subRegions.add(next.right, next.right.from, next.right.to);
+        }
+        
+        return new PartitionTree(points, root, lines);
+    }
+
+    /**
+     * Same as getSlices(PointSet, int) for the given nodes; getLabel(i) of
+     * the result is the region of the i-th node in iteration order.
+     *
+     * @param nodes
+     * @param parts
+     * @return the slicing
+     * @throws Exception
+     */
+    public static Slicing getSlices(Collection<Node> nodes, int parts) throws Exception
+    {
+        return getSlices(PointSet.fromNodes(nodes), parts);
+    }
+
+    /**
+     * Cuts the points into the given number of parts of equal weight (equal
+     * size for unweighted points) with parts - 1 parallel lines, in a
+     * single sweep instead of parts - 1 bisections:
+     * 1) the moments and the inertial axis [a, b] of the whole set, once
+     *    (steps 1 to 4 of getLine);
+     * 2) the sj of every point, and the parts - 1 quantiles of the sj found
+     *    together by MedianFinder.quantiles in expected O(N log parts);
+     * 3) the region of every point by binary search over the quantiles,
+     *    O(N log parts);
+     * 4) the points reordered in place, in O(N) swaps, so that every region
+     *    is contiguous.
+     * For parts = 2 the single line is the one getLine returns.
+     *
+     * Unlike getLines, whose parts are only equal when k + 1 is a power of
+     * two, the parts are equal for any k; they are slabs though, longer
+     * and thinner as k grows, so this fits small k best.
+     *
+     * @param points
+     * @param parts
+     * @return the slicing
+     * @throws Exception
+     */
+    public static Slicing getSlices(PointSet points, int parts) throws Exception
+    {
+        if (parts < 2) throw new Exception("parts must be >= 2");
+
+        //Steps 1 to 4 of getLine
+        final int N = points.size();
+        Moments moments = Moments.of(points, 0, N);
+        double xbar = moments.getXbar();
+        double ybar = moments.getYbar();
+        double[] axis = getAxis(moments.getX1(), moments.getX2(), moments.getX3());
+        double a = axis[0];
+        double b = axis[1];
+
+        //The quantiles of the sj
+        double[] sValues = new double[N];
+        points.project(0, N, a, b, xbar, ybar, sValues, 0);
+        double[] sWeights = null;
+        if (points.hasWeights())
+        {
+            sWeights = new double[N];
+            for (int i = 0; i < N; ++i)
+                sWeights[i] = points.getWeight(i);
+        }
+        double[] cuts = MedianFinder.quantiles(sValues.clone(), sWeights, 0, N, parts);
+
+        //Label the points and count the regions
+        int[] labels = new int[N];
+        int[] bounds = new int[parts + 1];
+        for (int i = 0; i < N; ++i)
+        {
+            labels[i] = Slicing.region(cuts, sValues[i]);
+            ++bounds[labels[i] + 1];
+        }
+        for (int r = 0; r < parts; ++r)
+            bounds[r + 1] += bounds[r];
+
+        //Move every point to its region: next[r] is the first slot of
+        //region r whose point has not been placed yet
+        int[] current = labels.clone();
+        int[] next = Arrays.copyOf(bounds, parts);
+        for (int r = 0; r < parts; ++r)
+        {
+            while (next[r] < bounds[r + 1])
+            {
+                int i = next[r];
+                int target = current[i];
+                if (target == r)
+                    ++next[r];
+                else
+                {
+                    int j = next[target]++;
+                    points.swap(i, j);
+                    current[i] = current[j];
+                    current[j] = target;
+                }
+            }
+        }
+
+        ArrayList<Line> lines = new ArrayList<Line>(parts - 1);
+        for (int c = 0; c < parts - 1; ++c)
+            lines.add(new Line(a, b, xbar, ybar, cuts[c], points, bounds[c], bounds[c + 1], N));
+
+        return new Slicing(a, b, xbar, ybar, cuts, lines, bounds, labels);
+    }
+
+    
+    /**
+     * Same as getLines(Collection<Node>, int), computed on the given pool 
+     * (see getLinesParallel(PointSet, int, ForkJoinPool, int)).
+     * 
+     * @param nodes
+     * @param k
+     * @param pool
+     * @return the k lines partitioning the nodes
+     * @throws Exception 
+     */
+    public static List<Line> getLinesParallel(Collection<Node> nodes, int k, ForkJoinPool pool) throws Exception
+    {
+        return getLinesParallel(PointSet.fromNodes(nodes), k, pool, PARALLEL_THRESHOLD);
+    }
+    
+    /**
+     * Same as getLinesParallel(PointSet, int, ForkJoinPool, int) with the
+     * default threshold PARALLEL_THRESHOLD.
+     */
+    public static List<Line> getLinesParallel(PointSet points, int k, ForkJoinPool pool) throws Exception
+    {
+        return getLinesParallel(points, k, pool, PARALLEL_THRESHOLD);
+    }
+    
+    /**
+     * Partitions the points into k + 1 regions with k lines, like 
+     * getLines(PointSet, int), by recursive bisection on a fork/join pool:
+     * once a region is split, its two halves are split concurrently.
+     * 
+     * Every region getLines splits weighs at least W / (k + 1), W being the
+     * total weight: when it splits its last region, that region is the 
+     * heaviest of the k + 1, so at least their average. Every region (of
+     * two points or more) that heavy is thus split in parallel, whether 
+     * getLines would split it or not, then the largest-first order of 
+     * getLines is replayed over the tree of bisections, splitting any 
+     * region it needs that was not split yet. The result is the same list 
+     * of lines as getLines(PointSet, int), whatever the ties at sbar; the 
+     * points of a region may be in another order, as some regions are 
+     * split beyond the k lines. Regions with fewer than threshold points 
+     * are not forked any further, their whole subtree is computed by the 
+     * current thread.
+     * 
+     * @param points
+     * @param k
+     * @param pool
+     * @param threshold
+     * @return the k lines partitioning the points
+     * @throws Exception 
+     */
+    public static List<Line> getLinesParallel(PointSet points, 
+                                              int k, 
+                                              ForkJoinPool pool, 
+                                              int threshold) throws Exception
+    {
+        if (k < 1) throw new Exception("k must be >= 1");
+        
+        double total = points.getWeight(0, points.size());
+        BisectionTask root = new BisectionTask(points, 0, points.size(), total, total / (k + 1), threshold);
+        ArrayList<Line> lines = new ArrayList<Line>();
+        try
+        {
+            pool.invoke(root);
+            
+            //Replay the largest-first order over the tree of bisections
+            PriorityQueue<BisectionTask> subRegions = new PriorityQueue<BisectionTask>(2 * k, new Comparator<BisectionTask>() {
+                @Override
+                public int compare(BisectionTask t1, BisectionTask t2)
+                {
+                    return compareRegions(t1.weight, t1.from, t2.weight, t2.from);
+                }
+            });
+            subRegions.add(root);
+            while (lines.size() < k)
+            {
+                BisectionTask task = subRegions.poll();
+                if (task.line == null)
+                    task.split();
+                lines.add(task.line);
+                subRegions.add(task.left);
+                subRegions.add(task.right);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            //getLine's checked exceptions are wrapped to cross the pool
+            for (Throwable cause = e; cause != null; cause = cause.getCause())
+                if (cause instanceof Exception && !(cause instanceof RuntimeException))
+                    throw (Exception)cause;
+            throw e;
         }
         
         return lines;
     }
     
+    /**
+     * The order in which getLines splits regions: heavier regions first 
+     * (the weight of a region of unweighted points being its size); among 
+     * regions of the same weight, the one that comes first in the point set.
+     * 
+     * @return a negative number if region 1 is to be split before region 2, 
+     * a positive number if after, 0 if they are the same
+     */
+    private static int compareRegions(double weight1, int from1, double weight2, int from2)
+    {
+        if (weight1 != weight2)
+            return (weight1 > weight2 ? -1 : 1);
+        return (from1 < from2 ? -1 : (from1 == from2 ? 0 : 1));
+    }
+    
+    /**
+     * Cuts the region [from, to) of a point set, then its halves, as long as
+     * they weigh at least minWeight. The line dividing the region and the 
+     * tasks for its two halves are kept so the caller can walk the tree of
+     * bisections afterwards.
+     */
+    @SuppressWarnings("serial")
+    private static class BisectionTask extends RecursiveAction
+    {
+        private final PointSet points;
+        private final int from;
+        private final int to;
+        private final double weight;
+        private final double minWeight;
+        private final int threshold;
+        
+        private Line line; //null until split
+        private BisectionTask left;
+        private BisectionTask right;
+        
+        BisectionTask(PointSet points, int from, int to, double weight, double minWeight, int threshold)
+        {
+            this.points = points;
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+            this.minWeight = minWeight;
+            this.threshold = threshold;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from < 2 || weight < minWeight)
+                return;
+            
+            split();
+            if (to - from < threshold)
+            {
+                left.compute();
+                right.compute();
+            }
+            else
+                invokeAll(left, right);
+        }
+        
+        /**
+         * Computes the line and the (not yet split) tasks of the halves
+         */
+        void split()
+        {
+            try
+            {
+                line = (to - from < threshold || !ForkJoinTask.inForkJoinPool()
+                        ? getLine(points, from, to)
+                        : getLine(points, from, to, getPool()));
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+            
+            double leftWeight = points.getWeight(from, line.getSplit());
+            double rightWeight = (points.hasWeights() ? weight - leftWeight : to - line.getSplit());
+            left = new BisectionTask(points, from, line.getSplit(), leftWeight, minWeight, threshold);
+            right = new BisectionTask(points, line.getSplit(), to, rightWeight, minWeight, threshold);
+        }
+    }
+    
+    /**
+     * Builds a QuantileSketch of the sj of a range, a sketch per chunk of 
+     * Moments.CHUNK_SIZE points merged left to right (as MomentsTask does), 
+     * optionally forking the halves of large ranges.
+     */
+    @SuppressWarnings("serial")
+    private static class SketchTask extends RecursiveTask<QuantileSketch>
+    {
+        private final PointSet points;
+        private final int from;
+        private final int to;
+        private final double a;
+        private final double b;
+        private final double xbar;
+        private final double ybar;
+        private final int k;
+        private final boolean fork;
+        
+        SketchTask(PointSet points, int from, int to, 
+                   double a, double b, double xbar, double ybar, 
+                   int k, boolean fork)
+        {
+            this.points = points;
+            this.from = from;
+            this.to = to;
+            this.a = a;
+            this.b = b;
+            this.xbar = xbar;
+            this.ybar = ybar;
+            this.k = k;
+            this.fork = fork;
+        }
+        
+        @Override
+        protected QuantileSketch compute()
+        {
+            if (to - from <= Moments.CHUNK_SIZE)
+            {
+                QuantileSketch sketch = new QuantileSketch(k, from + 1);
+                for (int i = from; i < to; ++i)
+                    sketch.add(Line.getSj(points.getX(i), points.getY(i), a, b, xbar, ybar));
+                return sketch;
+            }
+            
+            int mid = (from + to) >>> 1;
+            SketchTask left = new SketchTask(points, from, mid, a, b, xbar, ybar, k, fork);
+            SketchTask right = new SketchTask(points, mid, to, a, b, xbar, ybar, k, fork);
+            
+            QuantileSketch sketch;
+            if (fork && to - from >= Moments.PARALLEL_THRESHOLD)
+            {
+                right.fork();
+                sketch = left.compute();
+                sketch.merge(right.join());
+            }
+            else
+            {
+                sketch = left.compute();
+                sketch.merge(right.compute());
+            }
+            return sketch;
+        }
+    }
+    
     
     /**
      * This function returns an array list containing the solution(s) of a 
@@ -304,6 +942,15 @@ public class InertialPartitioner
    
 
 
+    /**
+     * @param node
+     * @param lines
+     * @return the side of the node relative to every line, one character 
+     * per line
+     * @deprecated builds a String per node; use getBinaryCode, or 
+     * PartitionTree.getPartition for whole sets
+     */
+    @Deprecated
     public String getBinaryString(Node node, List<Line> lines)
     {
         StringBuilder sb = new StringBuilder();
@@ -313,6 +960,52 @@ public class InertialPartitioner
         
         return sb.toString();
     }
+    
+    /**
+     * Same as getBinaryString, packed into a long: bit i is the value of the
+     * side of the node relative to line i (0 for LEFT, 1 for RIGHT).
+     * 
+     * @param node
+     * @param lines at most 64 lines
+     * @return the sides of the node
+     */
+    public static long getBinaryCode(Node node, List<Line> lines)
+    {
+        if (lines.size() > Long.SIZE)
+            throw new IllegalArgumentException("At most " + Long.SIZE + " lines fit in a long");
+        
+        long code = 0;
+        for (int i = 0; i < lines.size(); ++i)
+            if (lines.get(i).getSideMembership(node) == SideMembership.RIGHT)
+                code |= 1L << i;
+        return code;
+    }
+    
+    /**
+     * Computes getBinaryCode for every point of the set, without creating 
+     * any Node: codes[i] holds the sides of point i.
+     * 
+     * @param points
+     * @param lines at most 64 lines
+     * @param codes at least points.size() long
+     */
+    public static void getBinaryCodes(PointSet points, List<Line> lines, long[] codes)
+    {
+        if (lines.size() > Long.SIZE)
+            throw new IllegalArgumentException("At most " + Long.SIZE + " lines fit in a long");
+        
+        final int N = points.size();
+        Arrays.fill(codes, 0, N, 0L);
+        for (int l = 0; l < lines.size(); ++l)
+        {
+            Line line = lines.get(l);
+            double a = line.getA(), b = line.getB(), xbar = line.getXbar(), ybar = line.getYbar(), sbar = line.getSbar();
+            long bit = 1L << l;
+            for (int i = 0; i < N; ++i)
+                if (!(Line.getSj(points.getX(i), points.getY(i), a, b, xbar, ybar) < sbar))
+                    codes[i] |= bit;
+        }
+    }
 }
 
 
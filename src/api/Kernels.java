@@ -0,0 +1,150 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * The inner loops of getLine over coordinates held in primitive arrays
+ * (see ArrayPointSet): moment sums and projections on a line.
+ *
+ * The loops are straight counted loops over int[] with no calls, so the
+ * JIT unrolls them and, where it can, vectorizes them; the sums are split
+ * over independent accumulators so consecutive additions do not wait on
+ * each other. Every kernel gives exactly the same result as the scalar
+ * per-point path it replaces.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class Kernels
+{
+    /**
+     * Sums of integer terms stay exact in a double below this
+     */
+    private static final double EXACT = 9007199254740992.0; //2^53
+
+    private Kernels()
+    {
+    }
+
+    /**
+     * Computes the sums of dx, dy, dx^2, dx * dy and dy^2 over the points
+     * [from, to), dx = x - x0 and dy = y - y0, into sums[0..4] (the order
+     * of Moments). For integer x0 and y0, every term and partial sum is an
+     * integer; when they all stay below 2^53 the sums are exact, hence the
+     * same whatever the order of the additions, and the same as Moments.add
+     * point by point. Otherwise nothing is computed.
+     *
+     * @return false if the sums could not be computed exactly
+     */
+    static boolean sums(int[] xs, int[] ys, int from, int to, int x0, int y0, double[] sums)
+    {
+        //Range of the coordinates: every term is at most m^2
+        int minX = x0, maxX = x0, minY = y0, maxY = y0;
+        for (int i = from; i < to; ++i)
+        {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double m = Math.max(Math.max((double)maxX - x0, (double)x0 - minX),
+                            Math.max((double)maxY - y0, (double)y0 - minY));
+        if (m * m * (to - from) >= EXACT)
+            return false;
+
+        //Two independent accumulators per sum
+        double sx0 = 0, sy0 = 0, sxx0 = 0, sxy0 = 0, syy0 = 0;
+        double sx1 = 0, sy1 = 0, sxx1 = 0, sxy1 = 0, syy1 = 0;
+        int i = from;
+        for (; i + 1 < to; i += 2)
+        {
+            double dx0 = xs[i] - x0;
+            double dy0 = ys[i] - y0;
+            double dx1 = xs[i + 1] - x0;
+            double dy1 = ys[i + 1] - y0;
+            sx0 += dx0;
+            sy0 += dy0;
+            sxx0 += dx0 * dx0;
+            sxy0 += dx0 * dy0;
+            syy0 += dy0 * dy0;
+            sx1 += dx1;
+            sy1 += dy1;
+            sxx1 += dx1 * dx1;
+            sxy1 += dx1 * dy1;
+            syy1 += dy1 * dy1;
+        }
+        if (i < to)
+        {
+            double dx = xs[i] - x0;
+            double dy = ys[i] - y0;
+            sx0 += dx;
+            sy0 += dy;
+            sxx0 += dx * dx;
+            sxy0 += dx * dy;
+            syy0 += dy * dy;
+        }
+
+        sums[0] = sx0 + sx1;
+        sums[1] = sy0 + sy1;
+        sums[2] = sxx0 + sxx1;
+        sums[3] = sxy0 + sxy1;
+        sums[4] = syy0 + syy1;
+        return true;
+    }
+
+    /**
+     * Sets out[offset + i - from] to the sj of point i (see Line.getSj),
+     * for i in [from, to)
+     */
+    static void project(int[] xs, int[] ys, int from, int to,
+                        double a, double b, double xbar, double ybar,
+                        double[] out, int offset)
+    {
+        int shift = offset - from;
+        for (int i = from; i < to; ++i)
+            out[i + shift] = a * (ys[i] - ybar) - b * (xs[i] - xbar);
+    }
+
+    /**
+     * Reorders [from, to) so that the points on the LEFT side of the line
+     * (sj < sbar) come first, swapping through the given set
+     *
+     * @return the index of the first point on the RIGHT side
+     */
+    static int partition(int[] xs, int[] ys, int from, int to,
+                         double a, double b, double xbar, double ybar, double sbar,
+                         PointSet points)
+    {
+        int i = from;
+        int j = to - 1;
+
+        while (true)
+        {
+            while (i <= j && a * (ys[i] - ybar) - b * (xs[i] - xbar) < sbar)
+                ++i;
+            while (i <= j && !(a * (ys[j] - ybar) - b * (xs[j] - xbar) < sbar))
+                --j;
+            if (i >= j)
+                return i;
+            points.swap(i++, j--);
+        }
+    }
+}
@@ -21,14 +21,9 @@
 
 package api;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.SimpleWeightedGraph;
 
 /**
  * Represents a line L such that 
@@ -48,10 +43,25 @@ public class Line
     private double ybar;
     private double sbar;
 
-    private ArrayList<Node> leftNodes;
-    private ArrayList<Node> rightNodes;
+    //The region this line divides is [from, to) of points:
+    //[from, split) is on its left side, [split, to) on its right side
+    private PointSet points;
+    private int from;
+    private int split;
+    private int to;
     
     public Line(double a, double b, double xbar, double ybar, double sbar, Collection<Node> nodes)
+    {
+        this(a, b, xbar, ybar, sbar, PointSet.fromNodes(nodes), 0, nodes.size());
+    }
+    
+    /**
+     * Creates the line and partitions the points [from, to) of the given set
+     * in place: when the constructor returns, [from, getSplit()) holds the 
+     * points on the left side and [getSplit(), to) those on the right side.
+     */
+    public Line(double a, double b, double xbar, double ybar, double sbar, 
+                PointSet points, int from, int to)
     {
         this.a = a;
         this.b = b;
@@ -59,9 +69,43 @@ public class Line
         this.ybar = ybar;
         this.sbar = sbar;
         
-        leftNodes = new ArrayList<Node>();
-        rightNodes = new ArrayList<Node>();
-        partitionGraph(nodes);
+        this.points = points;
+        this.from = from;
+        this.to = to;
+        this.split = points.partition(this, from, to);
+    }
+    
+    /**
+     * Creates the line dividing the points [from, to) of the given set, 
+     * which are already partitioned: [from, split) on its left side and 
+     * [split, to) on its right side.
+     */
+    Line(double a, double b, double xbar, double ybar, double sbar, 
+         PointSet points, int from, int split, int to)
+    {
+        this.a = a;
+        this.b = b;
+        this.xbar = xbar;
+        this.ybar = ybar;
+        this.sbar = sbar;
+        
+        this.points = points;
+        this.from = from;
+        this.split = split;
+        this.to = to;
+    }
+    
+    /**
+     * Creates a line that does not divide any points
+     * (getLeftNodes() and getRightNodes() are empty).
+     */
+    public Line(double a, double b, double xbar, double ybar, double sbar)
+    {
+        this.a = a;
+        this.b = b;
+        this.xbar = xbar;
+        this.ybar = ybar;
+        this.sbar = sbar;
     }
     
     /**
@@ -149,6 +193,18 @@ public class Line
         return (sj < sbar ? SideMembership.LEFT : SideMembership.RIGHT);
     }
     
+    /**
+     * 
+     * @param x
+     * @param y
+     * @return the side membership of the point (x, y) with respect to this line
+     */
+    public SideMembership getSideMembership(double x, double y)
+    {
+        double sj = getSj(x, y, a, b, xbar, ybar);
+        return (sj < sbar ? SideMembership.LEFT : SideMembership.RIGHT);
+    }
+    
     /**
      * 
      * @param node
@@ -189,6 +245,22 @@ public class Line
         return a * (node.getY() - ybar) - b * (node.getX() - xbar);
     }
     
+    /**
+     * Same as getSj(Node, a, b, xbar, ybar) for the point (x, y)
+     *
+     * @param x
+     * @param y
+     * @param a
+     * @param b
+     * @param xbar
+     * @param ybar
+     * @return sj
+     */
+    public static double getSj(double x, double y, double a, double b, double xbar, double ybar)
+    {
+        return a * (y - ybar) - b * (x - xbar);
+    }
+    
     
     @Override
     public boolean equals(Object rhs)
@@ -219,25 +291,59 @@ public class Line
         return hash;
     }
 
-    private void partitionGraph(Collection<Node> nodes)
+    /**
+     * @return the first index of the region divided by this line
+     */
+    public int getFrom()
     {
-        for (Node node : nodes)
-        {
-            if (getSideMembership(node) == SideMembership.LEFT)
-                leftNodes.add(node);
-            else
-                rightNodes.add(node);
-        }
+        return from;
     }
     
+    /**
+     * @return the first index of the right side; [getFrom(), getSplit()) is
+     * the left side of the region
+     */
+    public int getSplit()
+    {
+        return split;
+    }
+    
+    /**
+     * @return the index after the last one of the region divided by this line
+     */
+    public int getTo()
+    {
+        return to;
+    }
+    
+    /**
+     * @return |left - right| / N for the region divided by this line (the
+     * balance it achieved; 0 if it divides no points)
+     */
+    public double getImbalance()
+    {
+        int n = to - from;
+        return (n == 0 ? 0 : Math.abs((split - from) - (to - split)) / (double)n);
+    }
+    
+    /**
+     * @return the nodes on the left side of this line
+     */
     public List<Node> getLeftNodes()
     {
-        return Collections.unmodifiableList(leftNodes);
+        if (points == null)
+            return Collections.<Node>emptyList();
+        return points.toNodes(from, split);
     }
     
+    /**
+     * @return the nodes on the right side of this line
+     */
     public List<Node> getRightNodes()
     {
-        return Collections.unmodifiableList(rightNodes);
+        if (points == null)
+            return Collections.<Node>emptyList();
+        return points.toNodes(split, to);
     }
     
     public String toString()
@@ -0,0 +1,331 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+
+/**
+ * Order statistics over a range of a primitive double array.
+ *
+ * Selection is done with introselect: quickselect with a median-of-three
+ * pivot, which runs in expected O(N), falling back to sorting the remaining
+ * range once the recursion gets deeper than 2 * log2(N) so the worst case
+ * stays O(N log N).
+ * The array is reordered in place; no boxing, no extra allocation.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class MedianFinder
+{
+    /**
+     * Ranges at or below this size are finished with insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private MedianFinder()
+    {
+    }
+
+    /**
+     * Returns the median of values[from, to).
+     *  - if the range has even number of elements, the median is the average
+     *    of the middle two elements (in sorted order).
+     *  - if the range has odd number of elements, the median is the middle element.
+     *
+     * The elements in the range are reordered.
+     *
+     * @param values
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the median of values[from, to)
+     */
+    public static double median(double[] values, int from, int to)
+    {
+        final int size = to - from;
+        if (size <= 0)
+            throw new IllegalArgumentException("Cannot find the median of an empty range");
+
+        double upper = select(values, from, to, size / 2);
+        if (size % 2 != 0)
+            return upper;
+
+        //After selection, every element in [from, from + size / 2) is <= upper,
+        //so the lower middle element is the largest of them.
+        double lower = values[from];
+        for (int i = from + 1; i < from + size / 2; ++i)
+            if (values[i] > lower)
+                lower = values[i];
+
+        return (upper + lower) / 2;
+    }
+
+    /**
+     * Returns the k-th smallest element (0-based) of values[from, to).
+     * When the method returns, values[from + k] holds that element, every
+     * element before it is <= and every element after it is >=.
+     *
+     * @param values
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param k rank within the range, 0 <= k < to - from
+     * @return the k-th smallest element of values[from, to)
+     */
+    public static double select(double[] values, int from, int to, int k)
+    {
+        if (k < 0 || k >= to - from)
+            throw new IllegalArgumentException(String.format("k = %d is out of range [0, %d)", k, to - from));
+
+        final int target = from + k;
+        int lo = from;
+        int hi = to - 1;
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+
+        while (hi - lo > INSERTION_SORT_THRESHOLD)
+        {
+            if (depthLimit-- == 0)
+            {
+                //Too many bad pivots; finish with a guaranteed O(N log N) sort
+                Arrays.sort(values, lo, hi + 1);
+                return values[target];
+            }
+
+            int mid = (lo + hi) >>> 1;
+
+            //Median of three: leaves values[lo] <= values[mid] <= values[hi]
+            if (values[mid] < values[lo]) swap(values, lo, mid);
+            if (values[hi] < values[lo]) swap(values, lo, hi);
+            if (values[hi] < values[mid]) swap(values, mid, hi);
+
+            double pivot = values[mid];
+
+            //Hoare partition of (lo, hi); values[lo] and values[hi] act as sentinels
+            int i = lo;
+            int j = hi;
+            while (true)
+            {
+                do ++i; while (values[i] < pivot);
+                do --j; while (values[j] > pivot);
+                if (i >= j)
+                    break;
+                swap(values, i, j);
+            }
+
+            //Now [lo, j] <= pivot <= [j + 1, hi]
+            if (target <= j)
+                hi = j;
+            else
+                lo = j + 1;
+        }
+
+        insertionSort(values, lo, hi);
+        return values[target];
+    }
+
+    /**
+     * Returns the weighted median of values[from, to), values[i] weighing
+     * weights[i] >= 0: in sorted order, the first value at which the
+     * cumulative weight reaches half of the total weight. If it reaches
+     * exactly half there, the median is the average of that value and the
+     * next one, so with unit weights this is median(values, from, to).
+     *
+     * Both arrays are reordered together.
+     *
+     * @param values
+     * @param weights
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the weighted median of values[from, to)
+     */
+    public static double weightedMedian(double[] values, double[] weights, int from, int to)
+    {
+        return quantiles(values, weights, from, to, 2)[0];
+    }
+
+    /**
+     * Returns the parts - 1 values cutting values[from, to) into parts of
+     * equal weight: cut c is the weighted c / parts quantile, the first
+     * value, in sorted order, at which the cumulative weight reaches
+     * c / parts of the total weight (or the average of that value and the
+     * next one if it reaches it exactly). For parts = 2 this is the
+     * weighted median.
+     *
+     * The quantiles are found together by a multi-way quickselect: each
+     * partition step only recurses into the sides that hold a quantile, so
+     * it runs in expected O(N log parts). Both arrays are reordered
+     * together.
+     *
+     * @param values
+     * @param weights the weights, >= 0, or null for unit weights
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param parts
+     * @return the cuts, in non-decreasing order
+     */
+    public static double[] quantiles(double[] values, double[] weights, int from, int to, int parts)
+    {
+        if (to - from <= 0)
+            throw new IllegalArgumentException("Cannot find the quantiles of an empty range");
+        if (parts < 2)
+            throw new IllegalArgumentException("parts must be >= 2");
+
+        double total = to - from;
+        if (weights != null)
+        {
+            total = 0;
+            for (int i = from; i < to; ++i)
+                total += weights[i];
+        }
+        if (!(total > 0))
+            throw new IllegalArgumentException("The total weight must be > 0");
+
+        double[] targets = new double[parts - 1];
+        for (int c = 1; c < parts; ++c)
+            targets[c - 1] = total * c / parts;
+
+        double[] cuts = new double[parts - 1];
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        quantiles(values, weights, from, to, 0, Double.NaN, targets, cuts, 0, parts - 1, depthLimit);
+        return cuts;
+    }
+
+    /**
+     * Finds cuts[t] for t in [tlo, thi), every targets[t] being in
+     * (below, below + weight of [lo, hi)]
+     *
+     * @param below weight of the values before lo, all smaller than [lo, hi)
+     * @param next smallest value after hi, NaN if there is none
+     */
+    private static void quantiles(double[] values, double[] weights, int lo, int hi,
+                                  double below, double next,
+                                  double[] targets, double[] cuts, int tlo, int thi,
+                                  int depthLimit)
+    {
+        while (tlo < thi)
+        {
+            double pivot;
+            if (depthLimit-- > 0)
+            {
+                int mid = (lo + hi - 1) >>> 1;
+                double a = values[lo];
+                double b = values[mid];
+                double c = values[hi - 1];
+                pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            }
+            else
+            {
+                //Too many bad pivots; the exact median halves the range
+                double[] copy = Arrays.copyOfRange(values, lo, hi);
+                pivot = select(copy, 0, copy.length, copy.length / 2);
+            }
+
+            //Three-way partition: [lo, lt) < pivot, [lt, gt) == pivot, [gt, hi) > pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            double less = 0;
+            double equal = 0;
+            while (i < gt)
+            {
+                double v = values[i];
+                if (v < pivot)
+                {
+                    less += (weights == null ? 1 : weights[i]);
+                    swap(values, weights, lt++, i++);
+                }
+                else if (v > pivot)
+                    swap(values, weights, i, --gt);
+                else
+                {
+                    equal += (weights == null ? 1 : weights[i]);
+                    ++i;
+                }
+            }
+
+            //Targets up to the end of [lo, lt) are found on that side
+            double lessEnd = below + less;
+            double equalEnd = lessEnd + equal;
+            int t = tlo;
+            if (lt > lo)
+                while (t < thi && targets[t] <= lessEnd)
+                    ++t;
+            if (t > tlo)
+                quantiles(values, weights, lo, lt, below, pivot, targets, cuts, tlo, t, depthLimit);
+
+            //Targets reached within the copies of the pivot
+            while (t < thi && targets[t] < equalEnd)
+                cuts[t++] = pivot;
+            if (t < thi && targets[t] == equalEnd)
+            {
+                double upper = next;
+                if (gt < hi)
+                {
+                    upper = values[gt];
+                    for (int j = gt + 1; j < hi; ++j)
+                        if (values[j] < upper)
+                            upper = values[j];
+                }
+                cuts[t++] = (Double.isNaN(upper) ? pivot : (pivot + upper) / 2);
+            }
+
+            //The remaining targets are beyond the pivot (or, by rounding,
+            //beyond the total weight: the largest value)
+            if (gt == hi)
+            {
+                while (t < thi)
+                    cuts[t++] = pivot;
+                return;
+            }
+            below = equalEnd;
+            lo = gt;
+            tlo = t;
+        }
+    }
+
+    private static void swap(double[] values, double[] weights, int i, int j)
+    {
+        swap(values, i, j);
+        if (weights != null)
+            swap(weights, i, j);
+    }
+
+    private static void insertionSort(double[] values, int lo, int hi)
+    {
+        for (int i = lo + 1; i <= hi; ++i)
+        {
+            double v = values[i];
+            int j = i - 1;
+            while (j >= lo && values[j] > v)
+            {
+                values[j + 1] = values[j];
+                --j;
+            }
+            values[j + 1] = v;
+        }
+    }
+
+    private static void swap(double[] values, int i, int j)
+    {
+        double tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+}
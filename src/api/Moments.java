@@ -0,0 +1,429 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The moments of a set of points needed by getLine, accumulated in one pass:
+ * N, Sigma(x), Sigma(y), Sigma(x^2), Sigma(x * y) and Sigma(y^2).
+ * Weighted points count for their weight w: the sums are W = Sigma(w), 
+ * Sigma(w * x), ..., Sigma(w * y^2) and the centroid and inertia are the 
+ * weighted ones. With unit weights W = N and every sum is the same as 
+ * without weights.
+ *
+ * To avoid the cancellation of Sigma(x^2) - Sigma(x)^2 / N, the sums are
+ * taken over (x - x0, y - y0) for a reference point (x0, y0) inside the set
+ * (for integer coordinates every term is then exact), and each sum is kept
+ * with a Neumaier compensation term. The central moments x1, x2, x3 are as
+ * accurate as the former two-pass computation.
+ *
+ * Moments with the same reference point can be merged, so a range can be
+ * split into chunks, accumulated in parallel and combined.
+ *
+ * The derived values (xbar, ybar, x1, x2, x3) do not depend on the
+ * reference point while the sums are exact, i.e. integers below 2^53 (as
+ * for integer coordinates and weights): the sums are then moved, exactly,
+ * to the integer part of the centroid before dividing. The same points
+ * thus give bit for bit the same centroid and inertia in whatever order
+ * (and around whatever point) they were summed.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class Moments
+{
+    /**
+     * Ranges are accumulated by a single loop up to this size
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Ranges at least this large are split across the pool
+     */
+    public static final int PARALLEL_THRESHOLD = 65536;
+
+    private static final int X = 0, Y = 1, XX = 2, XY = 3, YY = 4, W = 5;
+    private static final double EXACT = 9007199254740992.0; //2^53
+
+    private final double x0;
+    private final double y0;
+    private long n;
+    private final double[] sums = new double[6];
+    private final double[] comps = new double[6];
+
+    /**
+     * Creates empty moments around the reference point (x0, y0)
+     */
+    public Moments(double x0, double y0)
+    {
+        this.x0 = x0;
+        this.y0 = y0;
+    }
+
+    /**
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the moments of points [from, to)
+     */
+    public static Moments of(PointSet points, int from, int to)
+    {
+        double x0 = (from < to ? points.getX(from) : 0);
+        double y0 = (from < to ? points.getY(from) : 0);
+        return new MomentsTask(points, from, to, x0, y0, false).compute();
+    }
+
+    /**
+     * Same as of(PointSet, int, int), with large ranges split across the pool.
+     * The result is exactly the same as the sequential one: chunks are laid
+     * out and merged the same way whatever the number of threads.
+     *
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param pool the pool to run on, even when called from a task of
+     * another pool
+     * @return the moments of points [from, to)
+     */
+    public static Moments of(PointSet points, int from, int to, ForkJoinPool pool)
+    {
+        double x0 = (from < to ? points.getX(from) : 0);
+        double y0 = (from < to ? points.getY(from) : 0);
+        MomentsTask task = new MomentsTask(points, from, to, x0, y0, true);
+        return (ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task));
+    }
+
+    /**
+     * Adds the point (x, y)
+     */
+    public void add(double x, double y)
+    {
+        add(x, y, 1);
+    }
+
+    /**
+     * Adds the point (x, y) with the given weight
+     */
+    public void add(double x, double y, double w)
+    {
+        double dx = x - x0;
+        double dy = y - y0;
+        ++n;
+        accumulate(W, w);
+        accumulate(X, w * dx);
+        accumulate(Y, w * dy);
+        accumulate(XX, w * dx * dx);
+        accumulate(XY, w * dx * dy);
+        accumulate(YY, w * dy * dy);
+    }
+
+    /**
+     * Adds count unit-weight points whose sums around (x0, y0) are 
+     * sums[0..4]: Sigma(dx), Sigma(dy), Sigma(dx^2), Sigma(dx * dy) and
+     * Sigma(dy^2) (see Kernels.sums)
+     */
+    void addSums(int count, double[] sums)
+    {
+        n += count;
+        accumulate(W, count);
+        accumulate(X, sums[0]);
+        accumulate(Y, sums[1]);
+        accumulate(XX, sums[2]);
+        accumulate(XY, sums[3]);
+        accumulate(YY, sums[4]);
+    }
+
+    double getX0()
+    {
+        return x0;
+    }
+
+    double getY0()
+    {
+        return y0;
+    }
+
+    /**
+     * Removes the point (x, y), which must have been added before.
+     * For integer coordinates (and weights) every term is exact, so 
+     * removing a point gives the same sums as never having added it.
+     */
+    public void remove(double x, double y)
+    {
+        remove(x, y, 1);
+    }
+
+    /**
+     * Removes the point (x, y), added before with the given weight
+     */
+    public void remove(double x, double y, double w)
+    {
+        double dx = x - x0;
+        double dy = y - y0;
+        --n;
+        accumulate(W, -w);
+        accumulate(X, -(w * dx));
+        accumulate(Y, -(w * dy));
+        accumulate(XX, -(w * dx * dx));
+        accumulate(XY, -(w * dx * dy));
+        accumulate(YY, -(w * dy * dy));
+    }
+
+    /**
+     * Adds the points of other, which must have the same reference point
+     */
+    public void merge(Moments other)
+    {
+        if (other.x0 != x0 || other.y0 != y0)
+            throw new IllegalArgumentException("Cannot merge moments with different reference points");
+
+        n += other.n;
+        for (int i = 0; i < sums.length; ++i)
+        {
+            accumulate(i, other.sums[i]);
+            comps[i] += other.comps[i];
+        }
+    }
+
+    /**
+     * Neumaier's compensated summation step
+     */
+    private void accumulate(int i, double value)
+    {
+        double sum = sums[i];
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value))
+            comps[i] += (sum - t) + value;
+        else
+            comps[i] += (value - t) + sum;
+        sums[i] = t;
+    }
+
+    private double get(int i)
+    {
+        return sums[i] + comps[i];
+    }
+
+    /**
+     * @return N, the number of points
+     */
+    public long getCount()
+    {
+        return n;
+    }
+
+    /**
+     * @return W = Sigma(w), the total weight (N with unit weights)
+     */
+    public double getWeight()
+    {
+        return get(W);
+    }
+
+    /**
+     * @return Sigma(w * x)
+     */
+    public double getSumX()
+    {
+        return get(W) * x0 + get(X);
+    }
+
+    /**
+     * @return Sigma(w * y)
+     */
+    public double getSumY()
+    {
+        return get(W) * y0 + get(Y);
+    }
+
+    /**
+     * @return Sigma(w * x^2)
+     */
+    public double getSumXX()
+    {
+        return get(XX) + 2 * x0 * get(X) + get(W) * x0 * x0;
+    }
+
+    /**
+     * @return Sigma(w * x * y)
+     */
+    public double getSumXY()
+    {
+        return get(XY) + x0 * get(Y) + y0 * get(X) + get(W) * x0 * y0;
+    }
+
+    /**
+     * @return Sigma(w * y^2)
+     */
+    public double getSumYY()
+    {
+        return get(YY) + 2 * y0 * get(Y) + get(W) * y0 * y0;
+    }
+
+    /**
+     * @return xbar = Sigma(w * x) / W
+     */
+    public double getXbar()
+    {
+        double[] c = getCentral();
+        return (c == null ? getSumX() / get(W) : c[0] + c[2] / get(W));
+    }
+
+    /**
+     * @return ybar = Sigma(w * y) / W
+     */
+    public double getYbar()
+    {
+        double[] c = getCentral();
+        return (c == null ? getSumY() / get(W) : c[1] + c[3] / get(W));
+    }
+
+    /**
+     * @return x1 = Sigma[w * (x - xbar)^2]
+     */
+    public double getX1()
+    {
+        double[] c = getCentral();
+        double sx = (c == null ? get(X) : c[2]);
+        return (c == null ? get(XX) : c[4]) - sx * sx / get(W);
+    }
+
+    /**
+     * @return x2 = Sigma[w * (x - xbar) * (y - ybar)]
+     */
+    public double getX2()
+    {
+        double[] c = getCentral();
+        return (c == null
+                ? get(XY) - get(X) * get(Y) / get(W)
+                : c[5] - c[2] * c[3] / get(W));
+    }
+
+    /**
+     * @return x3 = Sigma[w * (y - ybar)^2]
+     */
+    public double getX3()
+    {
+        double[] c = getCentral();
+        double sy = (c == null ? get(Y) : c[3]);
+        return (c == null ? get(YY) : c[6]) - sy * sy / get(W);
+    }
+
+    /**
+     * @return {cx, cy, Sigma(w * dx), Sigma(w * dy), Sigma(w * dx^2),
+     * Sigma(w * dx * dy), Sigma(w * dy^2)}, dx = x - cx and dy = y - cy,
+     * (cx, cy) being the integer part of the centroid, or null unless the
+     * reference point and every sum are integers below 2^53
+     */
+    private double[] getCentral()
+    {
+        if (x0 != Math.rint(x0) || y0 != Math.rint(y0) || Math.abs(x0) >= EXACT || Math.abs(y0) >= EXACT)
+            return null;
+        long[] v = new long[sums.length];
+        for (int i = 0; i < sums.length; ++i)
+        {
+            double value = get(i);
+            if (value != Math.rint(value) || Math.abs(value) >= EXACT)
+                return null;
+            v[i] = (long)value;
+        }
+        long w = v[W];
+        if (w <= 0)
+            return null;
+
+        //Exact in longs: each product is at most about Sigma(w * dx^2) or
+        //|Sigma(w * dx)|, as |dx0| <= |Sigma(w * dx)| / W + 1
+        long dx0 = floorDiv(v[X], w);
+        long dy0 = floorDiv(v[Y], w);
+        return new double[] {
+            (long)x0 + dx0,
+            (long)y0 + dy0,
+            v[X] - w * dx0,
+            v[Y] - w * dy0,
+            v[XX] - 2 * dx0 * v[X] + w * dx0 * dx0,
+            v[XY] - dx0 * v[Y] - dy0 * v[X] + w * dx0 * dy0,
+            v[YY] - 2 * dy0 * v[Y] + w * dy0 * dy0
+        };
+    }
+
+    private static long floorDiv(long a, long b)
+    {
+        long q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0) ? q - 1 : q);
+    }
+
+    /**
+     * Accumulates a range by halving it down to CHUNK_SIZE and merging the
+     * halves left to right, optionally forking the halves of large ranges.
+     */
+    @SuppressWarnings("serial")
+    private static class MomentsTask extends RecursiveTask<Moments>
+    {
+        private final PointSet points;
+        private final int from;
+        private final int to;
+        private final double x0;
+        private final double y0;
+        private final boolean fork;
+
+        MomentsTask(PointSet points, int from, int to, double x0, double y0, boolean fork)
+        {
+            this.points = points;
+            this.from = from;
+            this.to = to;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.fork = fork;
+        }
+
+        @Override
+        protected Moments compute()
+        {
+            if (to - from <= CHUNK_SIZE)
+            {
+                Moments moments = new Moments(x0, y0);
+                points.addTo(moments, from, to);
+                return moments;
+            }
+
+            int mid = (from + to) >>> 1;
+            MomentsTask left = new MomentsTask(points, from, mid, x0, y0, fork);
+            MomentsTask right = new MomentsTask(points, mid, to, x0, y0, fork);
+
+            Moments moments;
+            if (fork && to - from >= PARALLEL_THRESHOLD)
+            {
+                right.fork();
+                moments = left.compute();
+                moments.merge(right.join());
+            }
+            else
+            {
+                moments = left.compute();
+                moments.merge(right.compute());
+            }
+            return moments;
+        }
+    }
+}
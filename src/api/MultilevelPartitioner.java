@@ -0,0 +1,389 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multilevel partitioning of large cell graphs:
+ *  1. coarsening: the grid is tiled with tile x tile blocks, the cells of a
+ *     block merging into one vertex weighing the number of cells it stands
+ *     for, linked to the blocks around it by the total weight of the edges
+ *     between them; this repeats until the graph has at most coarsestSize
+ *     vertices;
+ *  2. the coarsest graph is partitioned by getLines (getPartitionTree),
+ *     the weighted median balancing the cells on either side of each line,
+ *     then refined (BoundaryRefiner);
+ *  3. the labels are projected back level by level, every vertex taking the
+ *     label of its block, and refined at each level.
+ *
+ * The sizes of the parts are those of the coarsest graph, where each
+ * bisection is exact to within a block; a larger coarsestSize gives
+ * smaller blocks and better balanced parts.
+ *
+ * Only the coarsest graph, about tile^(2 * levels) times smaller than the
+ * original one, is ever turned into points and bisected; the finer levels
+ * only keep a map to their blocks and are walked by the refinement.
+ *
+ * Each level is built in parallel on a pool, by ranges of block rows: the
+ * cells of a range of block rows are a range of vertices of the finer
+ * graph (vertices being numbered in row-major order), and only touch the
+ * blocks of that range.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class MultilevelPartitioner
+{
+    public static final int DEFAULT_COARSEST_SIZE = 65536;
+    public static final int DEFAULT_TILE = 2;
+
+    /**
+     * Ranges of block rows covering fewer vertices than this are built
+     * sequentially
+     */
+    public static final int CHUNK_SIZE = 65536;
+
+    //Direction of a block (dx, dy) around another, at (dy + 1) * 3 + dx + 1
+    private static final int[] DIRECTIONS = new int[9];
+    static
+    {
+        for (int d = 0; d < CellGraph.DX.length; ++d)
+            DIRECTIONS[(CellGraph.DY[d] + 1) * 3 + CellGraph.DX[d] + 1] = d;
+    }
+
+    private MultilevelPartitioner()
+    {
+    }
+
+    /**
+     * Same as partition(graph, k, DEFAULT_TILE, DEFAULT_COARSEST_SIZE,
+     * BoundaryRefiner.DEFAULT_IMBALANCE, pool)
+     */
+    public static int[] partition(CellGraph graph, int k, ForkJoinPool pool) throws Exception
+    {
+        return partition(graph, k, DEFAULT_TILE, DEFAULT_COARSEST_SIZE, BoundaryRefiner.DEFAULT_IMBALANCE, pool);
+    }
+
+    /**
+     * Partitions the graph into k + 1 parts, the parts getLines would make
+     * with k lines
+     *
+     * @param graph
+     * @param k number of lines
+     * @param tile the side of the blocks merged at each level, >= 2
+     * @param coarsestSize coarsening stops once the graph has at most this
+     * many vertices
+     * @param imbalance see BoundaryRefiner.refine; the bounds are relative to
+     * the sizes of the parts of the coarsest graph
+     * @param pool the pool to coarsen and refine on, or null
+     * @return the part of every vertex, in [0, k + 1)
+     * @throws Exception
+     */
+    public static int[] partition(CellGraph graph, int k, int tile, int coarsestSize, double imbalance,
+                                  ForkJoinPool pool) throws Exception
+    {
+        if (tile < 2)
+            throw new IllegalArgumentException("tile must be >= 2");
+        if (coarsestSize < 1)
+            throw new IllegalArgumentException("coarsestSize must be >= 1");
+
+        //Coarsen; maps.get(i) sends the vertices of graphs.get(i) to their blocks
+        List<CellGraph> graphs = new ArrayList<CellGraph>();
+        List<int[]> weights = new ArrayList<int[]>();
+        List<int[]> maps = new ArrayList<int[]>();
+        CellGraph current = graph;
+        int[] currentWeights = null;
+        graphs.add(current);
+        weights.add(null);
+        while (current.getVertexCount() > coarsestSize)
+        {
+            Level level = new Level(current, currentWeights, tile);
+            level.build(pool);
+            maps.add(level.map);
+            current = level.coarse;
+            currentWeights = level.coarseWeights;
+            graphs.add(current);
+            weights.add(currentWeights);
+        }
+
+        //Partition the coarsest graph
+        final int n = current.getVertexCount();
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        double[] pointWeights = new double[n];
+        for (int v = 0; v < n; ++v)
+        {
+            ids[v] = v;
+            xs[v] = current.getX(v);
+            ys[v] = current.getY(v);
+            pointWeights[v] = (currentWeights == null ? 1 : currentWeights[v]);
+        }
+        PartitionTree tree = InertialPartitioner.getPartitionTree(PointSet.wrap(ids, xs, ys, pointWeights), k);
+        int parts = tree.getRegionCount();
+        int[] labels = tree.getPartition();
+
+        //The cells in each part, which projection keeps
+        int[] reference = new int[parts];
+        for (int v = 0; v < n; ++v)
+            reference[labels[v]] += (currentWeights == null ? 1 : currentWeights[v]);
+
+        BoundaryRefiner.refine(current, currentWeights, labels, parts, reference,
+                               imbalance, BoundaryRefiner.DEFAULT_PASSES, pool);
+
+        //Project back and refine, level by level
+        for (int i = maps.size() - 1; i >= 0; --i)
+        {
+            int[] map = maps.get(i);
+            int[] finer = new int[map.length];
+            for (int v = 0; v < map.length; ++v)
+                finer[v] = labels[map[v]];
+            labels = finer;
+            BoundaryRefiner.refine(graphs.get(i), weights.get(i), labels, parts, reference,
+                                   imbalance, BoundaryRefiner.DEFAULT_PASSES, pool);
+        }
+        return labels;
+    }
+
+    /**
+     * One coarsening step: the graph of the tile x tile blocks of a graph
+     */
+    private static final class Level
+    {
+        private final CellGraph graph;
+        private final int[] weights;      //of the vertices of graph, null for unit weights
+        private final int tile;
+        private final int rows;           //block rows
+        private final int cols;           //block columns
+        private final int[] rowStart;     //first vertex of graph in each row, and the vertex count
+
+        private boolean[] present;        //blocks holding a vertex
+        private int[] index;              //vertex of each block, -1 if none
+        private int[] blockRowStart;      //first block vertex in each block row, and the count
+        private int[] blocks;             //block of each block vertex
+        private float[] slots;            //edge weight from block vertex c in direction d, at 8c + d
+
+        int[] map;
+        CellGraph coarse;
+        int[] coarseWeights;
+        private int[] offsets;
+        private int[] targets;
+        private float[] edgeWeights;
+        private boolean fork;
+
+        Level(CellGraph graph, int[] weights, int tile)
+        {
+            this.graph = graph;
+            this.weights = weights;
+            this.tile = tile;
+            rows = (graph.getRowCount() + tile - 1) / tile;
+            cols = (graph.getColumnCount() + tile - 1) / tile;
+
+            //The vertices are in row-major order
+            final int n = graph.getVertexCount();
+            rowStart = new int[graph.getRowCount() + 1];
+            for (int y = 0; y <= graph.getRowCount(); ++y)
+            {
+                int lo = (y == 0 ? 0 : rowStart[y - 1]);
+                int hi = n;
+                while (lo < hi)
+                {
+                    int mid = (lo + hi) >>> 1;
+                    if (graph.getY(mid) < y)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+                rowStart[y] = lo;
+            }
+        }
+
+        private int getBlock(int v)
+        {
+            return (graph.getY(v) / tile) * cols + graph.getX(v) / tile;
+        }
+
+        /**
+         * @return the first vertex of the finer graph in block row r
+         */
+        private int getVertexFrom(int r)
+        {
+            return rowStart[Math.min(graph.getRowCount(), r * tile)];
+        }
+
+        void build(ForkJoinPool pool)
+        {
+            fork = (pool != null);
+
+            //Pass 1: the blocks present, numbered in row-major order
+            present = new boolean[rows * cols];
+            run(new LevelTask(0, 0, rows), pool);
+
+            index = new int[rows * cols];
+            blockRowStart = new int[rows + 1];
+            int count = 0;
+            for (int b = 0; b < index.length; ++b)
+            {
+                if (b % cols == 0)
+                    blockRowStart[b / cols] = count;
+                index[b] = (present[b] ? count++ : -1);
+            }
+            blockRowStart[rows] = count;
+            blocks = new int[count];
+            for (int b = 0; b < index.length; ++b)
+                if (index[b] >= 0)
+                    blocks[index[b]] = b;
+            present = null;
+
+            //Pass 2: the map, the weights of the blocks, the edges between
+            //them and the degrees
+            map = new int[graph.getVertexCount()];
+            coarseWeights = new int[count];
+            slots = new float[8 * count];
+            offsets = new int[count + 1];
+            run(new LevelTask(1, 0, rows), pool);
+
+            long total = 0;
+            for (int c = 1; c <= count; ++c)
+            {
+                total += offsets[c];
+                if (total > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("Too many edges for compressed sparse rows");
+                offsets[c] = (int)total;
+            }
+
+            //Pass 3: the neighbours
+            targets = new int[(int)total];
+            edgeWeights = new float[(int)total];
+            run(new LevelTask(2, 0, rows), pool);
+
+            coarse = new CsrGraph(rows, cols, offsets, targets, edgeWeights, blocks);
+            index = null;
+            slots = null;
+        }
+
+        private void run(LevelTask task, ForkJoinPool pool)
+        {
+            if (pool == null)
+                task.compute();
+            else if (ForkJoinTask.getPool() == pool)
+                task.invoke();
+            else
+                pool.invoke(task);
+        }
+
+        private void markPresent(int from, int to)
+        {
+            for (int v = getVertexFrom(from); v < getVertexFrom(to); ++v)
+                present[getBlock(v)] = true;
+        }
+
+        private void aggregate(int from, int to)
+        {
+            int[] neighbors = new int[graph.getMaxDegree()];
+            float[] weights = new float[graph.getMaxDegree()];
+            for (int v = getVertexFrom(from); v < getVertexFrom(to); ++v)
+            {
+                int block = getBlock(v);
+                int c = index[block];
+                map[v] = c;
+                coarseWeights[c] += (this.weights == null ? 1 : this.weights[v]);
+
+                int degree = graph.getNeighbors(v, neighbors, weights);
+                for (int i = 0; i < degree; ++i)
+                {
+                    int other = getBlock(neighbors[i]);
+                    if (other == block)
+                        continue;
+                    int dx = other % cols - block % cols;
+                    int dy = other / cols - block / cols;
+                    slots[8 * c + DIRECTIONS[(dy + 1) * 3 + dx + 1]] += weights[i];
+                }
+            }
+
+            for (int c = blockRowStart[from]; c < blockRowStart[to]; ++c)
+            {
+                int degree = 0;
+                for (int d = 0; d < 8; ++d)
+                    if (slots[8 * c + d] > 0)
+                        ++degree;
+                offsets[c + 1] = degree;
+            }
+        }
+
+        private void fill(int from, int to)
+        {
+            for (int c = blockRowStart[from]; c < blockRowStart[to]; ++c)
+            {
+                int pos = offsets[c];
+                for (int d = 0; d < 8; ++d)
+                {
+                    if (!(slots[8 * c + d] > 0))
+                        continue;
+                    int block = blocks[c];
+                    targets[pos] = index[block + CellGraph.DY[d] * cols + CellGraph.DX[d]];
+                    edgeWeights[pos] = slots[8 * c + d];
+                    ++pos;
+                }
+            }
+        }
+
+        /**
+         * One pass over the block rows [from, to): pass 0 marks the blocks
+         * present, pass 1 aggregates, pass 2 fills the neighbours
+         */
+        @SuppressWarnings("serial")
+        private final class LevelTask extends RecursiveAction
+        {
+            private final int pass;
+            private final int from;
+            private final int to;
+
+            LevelTask(int pass, int from, int to)
+            {
+                this.pass = pass;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute()
+            {
+                if (!fork || to - from < 2 || getVertexFrom(to) - getVertexFrom(from) <= CHUNK_SIZE)
+                {
+                    if (pass == 0)
+                        markPresent(from, to);
+                    else if (pass == 1)
+                        aggregate(from, to);
+                    else
+                        fill(from, to);
+                    return;
+                }
+
+                int mid = (from + to) >>> 1;
+                invokeAll(new LevelTask(pass, from, mid), new LevelTask(pass, mid, to));
+            }
+        }
+    }
+}
@@ -32,13 +32,26 @@ public class Node
     private int x;
     private int y;
     private boolean isDead;
+    private double weight;
     
     public Node(int id, int x, int y)
+    {
+        this(id, x, y, 1);
+    }
+    
+    /**
+     * @param id
+     * @param x
+     * @param y
+     * @param weight the load of this node (>= 0), 1 by default
+     */
+    public Node(int id, int x, int y, double weight)
     {
         this.id = id;
         this.x = x;
         this.y = y;
         isDead = false;
+        setWeight(weight);
     }
     
     public void setIsDead(boolean isDead)
@@ -51,6 +64,24 @@ public class Node
         return isDead;
     }
     
+    /**
+     * @return the weight
+     */
+    public double getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * @param weight the weight to set (>= 0)
+     */
+    public void setWeight(double weight)
+    {
+        if (!(weight >= 0) || Double.isInfinite(weight))
+            throw new IllegalArgumentException("weight must be finite and >= 0");
+        this.weight = weight;
+    }
+    
     /**
      * @return the id
      */
@@ -0,0 +1,208 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A column of 32-bit values (int or float) held outside the Java heap, in
+ * direct or memory-mapped byte buffers, indexed by long.
+ *
+ * A single buffer holds at most 2 GB, so the column is cut into segments
+ * of 2^shift values, each its own buffer: value i is in segment
+ * i >>> shift at offset (i & mask) * 4. Values are little-endian, as in a
+ * point file, so a column can be mapped straight from one.
+ *
+ * Direct buffers count against -XX:MaxDirectMemorySize (the maximum heap
+ * size by default), so a column of MAP_BYTES or more is allocated as a
+ * mapping of a deleted temporary file instead: the operating system pages
+ * it in and out like any mapped file, and the limit does not apply. Either
+ * way the memory is freed when the column is garbage collected; there is
+ * no explicit release, as a buffer still in use cannot safely be unmapped.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class OffHeapColumn
+{
+    /**
+     * log2 of the number of values per segment (1 GB segments)
+     */
+    static final int SEGMENT_SHIFT = 28;
+
+    /**
+     * Columns of this many bytes or more are backed by a temporary file
+     */
+    static final long MAP_BYTES = 1L << 24;
+
+    private final ByteBuffer[] segments;
+    private final int shift;
+    private final long mask;
+    private final long length;
+
+    private OffHeapColumn(ByteBuffer[] segments, int shift, long length)
+    {
+        this.segments = segments;
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+        this.length = length;
+    }
+
+    /**
+     * @param length number of values
+     * @param shift log2 of the number of values per segment
+     * @return a writable column of zeros, backed by a temporary file if it
+     * takes MAP_BYTES or more
+     */
+    static OffHeapColumn allocate(long length, int shift)
+    {
+        return (4 * length < MAP_BYTES ? allocateDirect(length, shift) : allocateMapped(length, shift));
+    }
+
+    /**
+     * @param length number of values
+     * @param shift log2 of the number of values per segment
+     * @return a writable column of zeros in direct buffers
+     */
+    static OffHeapColumn allocateDirect(long length, int shift)
+    {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(length, shift)];
+        for (int s = 0; s < segments.length; ++s)
+        {
+            long values = Math.min(1L << shift, length - ((long)s << shift));
+            segments[s] = ByteBuffer.allocateDirect((int)(4 * values)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new OffHeapColumn(segments, shift, length);
+    }
+
+    /**
+     * @param length number of values
+     * @param shift log2 of the number of values per segment
+     * @return a writable column of zeros mapped from a temporary file,
+     * deleted as soon as it is mapped
+     */
+    static OffHeapColumn allocateMapped(long length, int shift)
+    {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(length, shift)];
+        try
+        {
+            File file = File.createTempFile("column", ".bin");
+            try
+            {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try
+                {
+                    //Mapping past the end grows the file with zeros
+                    FileChannel channel = raf.getChannel();
+                    for (int s = 0; s < segments.length; ++s)
+                    {
+                        long first = (long)s << shift;
+                        long values = Math.min(1L << shift, length - first);
+                        segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, 4 * first, 4 * values)
+                                             .order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            finally
+            {
+                //Where a mapped file cannot be deleted (Windows), wait for exit
+                if (!file.delete())
+                    file.deleteOnExit();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not map a temporary file for " + length + " values", e);
+        }
+        return new OffHeapColumn(segments, shift, length);
+    }
+
+    /**
+     * @param channel
+     * @param position offset of the column in the file
+     * @param length number of values
+     * @return a read-only column over length values of the file
+     * @throws IOException
+     */
+    static OffHeapColumn map(FileChannel channel, long position, long length) throws IOException
+    {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(length, SEGMENT_SHIFT)];
+        for (int s = 0; s < segments.length; ++s)
+        {
+            long first = (long)s << SEGMENT_SHIFT;
+            long values = Math.min(1L << SEGMENT_SHIFT, length - first);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position + 4 * first, 4 * values)
+                                 .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new OffHeapColumn(segments, SEGMENT_SHIFT, length);
+    }
+
+    private static int segmentCount(long length, int shift)
+    {
+        if (length < 0)
+            throw new IllegalArgumentException("length must be >= 0");
+        return (int)((length + (1L << shift) - 1) >>> shift);
+    }
+
+    long length()
+    {
+        return length;
+    }
+
+    int getInt(long i)
+    {
+        return segments[(int)(i >>> shift)].getInt((int)(i & mask) << 2);
+    }
+
+    void putInt(long i, int value)
+    {
+        segments[(int)(i >>> shift)].putInt((int)(i & mask) << 2, value);
+    }
+
+    float getFloat(long i)
+    {
+        return segments[(int)(i >>> shift)].getFloat((int)(i & mask) << 2);
+    }
+
+    void putFloat(long i, float value)
+    {
+        segments[(int)(i >>> shift)].putFloat((int)(i & mask) << 2, value);
+    }
+
+    /**
+     * Swaps values i and j (as raw 32 bits, so for floats as well)
+     */
+    void swap(long i, long j)
+    {
+        int tmp = getInt(i);
+        putInt(i, getInt(j));
+        putInt(j, tmp);
+    }
+}
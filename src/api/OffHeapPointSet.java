@@ -0,0 +1,192 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * A point set whose columns live outside the Java heap (see OffHeapColumn),
+ * either allocated (PointSet.allocateOffHeap, then filled with set) or
+ * mapped from a point file (PointFile.map). Billions of points then cost
+ * the heap nothing and the garbage collector never scans them.
+ *
+ * The columns are never moved: the set is reordered through a permutation,
+ * itself off the heap, order[i] being the position of point i in the
+ * columns. It is created on the first swap, so that loading a set costs
+ * nothing more than its columns; until then point i is at position i.
+ * Parallel bisections swap in disjoint ranges from several threads, so the
+ * permutation is created once, under a lock, and published through a
+ * volatile field: every thread then reorders the same one. Without an id
+ * column, the id of a point is its position in the columns.
+ * Mapped sets are read-only: set and setWeight throw.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class OffHeapPointSet extends PointSet
+{
+    private final int size;
+    private final OffHeapColumn xs;
+    private final OffHeapColumn ys;
+    private final OffHeapColumn ids;      //null without ids
+    private final OffHeapColumn weights;  //null without weights
+    private final boolean readOnly;
+    private final int shift;
+    private volatile OffHeapColumn order; //null until the first swap
+
+    OffHeapPointSet(int size, OffHeapColumn xs, OffHeapColumn ys, OffHeapColumn ids, OffHeapColumn weights,
+                    boolean readOnly, int shift)
+    {
+        this.size = size;
+        this.xs = xs;
+        this.ys = ys;
+        this.ids = ids;
+        this.weights = weights;
+        this.readOnly = readOnly;
+        this.shift = shift;
+    }
+
+    /**
+     * @param size
+     * @param hasIds
+     * @param hasWeights
+     * @param shift log2 of the number of values per segment
+     * @return a writable set of size points at (0, 0), of weight 0
+     */
+    static OffHeapPointSet allocate(int size, boolean hasIds, boolean hasWeights, int shift)
+    {
+        return new OffHeapPointSet(size,
+                                   OffHeapColumn.allocate(size, shift),
+                                   OffHeapColumn.allocate(size, shift),
+                                   (hasIds ? OffHeapColumn.allocate(size, shift) : null),
+                                   (hasWeights ? OffHeapColumn.allocate(size, shift) : null),
+                                   false, shift);
+    }
+
+    /**
+     * @return the position of point i in the columns
+     */
+    private long position(int i)
+    {
+        OffHeapColumn o = order;
+        return (o == null ? i : o.getInt(i));
+    }
+
+    private void checkWritable()
+    {
+        if (readOnly)
+            throw new IllegalStateException("The point set is read-only");
+    }
+
+    /**
+     * Sets the id and coordinates of point i
+     *
+     * @param i
+     * @param id ignored if the set has no id column
+     * @param x
+     * @param y
+     */
+    public void set(int i, int id, int x, int y)
+    {
+        checkWritable();
+        long p = position(i);
+        xs.putInt(p, x);
+        ys.putInt(p, y);
+        if (ids != null)
+            ids.putInt(p, id);
+    }
+
+    /**
+     * Sets the weight of point i
+     *
+     * @param i
+     * @param weight finite, >= 0
+     */
+    public void setWeight(int i, double weight)
+    {
+        checkWritable();
+        if (weights == null)
+            throw new IllegalStateException("The point set has no weights");
+        if (!(weight >= 0) || Double.isInfinite(weight))
+            throw new IllegalArgumentException("weight must be finite and >= 0");
+        weights.putFloat(position(i), (float)weight);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public int getId(int i)
+    {
+        long p = position(i);
+        return (ids == null ? (int)p : ids.getInt(p));
+    }
+
+    @Override
+    public int getX(int i)
+    {
+        return xs.getInt(position(i));
+    }
+
+    @Override
+    public int getY(int i)
+    {
+        return ys.getInt(position(i));
+    }
+
+    @Override
+    public boolean hasWeights()
+    {
+        return weights != null;
+    }
+
+    @Override
+    public double getWeight(int i)
+    {
+        return (weights == null ? 1 : weights.getFloat(position(i)));
+    }
+
+    @Override
+    public void swap(int i, int j)
+    {
+        OffHeapColumn o = order;
+        if (o == null)
+            o = createOrder();
+        o.swap(i, j);
+    }
+
+    /**
+     * @return the permutation, filled with the identity unless another
+     * thread created it first
+     */
+    private synchronized OffHeapColumn createOrder()
+    {
+        if (order == null)
+        {
+            OffHeapColumn o = OffHeapColumn.allocate(size, shift);
+            for (int k = 0; k < size; ++k)
+                o.putInt(k, k);
+            order = o;
+        }
+        return order;
+    }
+}
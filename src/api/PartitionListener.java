@@ -0,0 +1,46 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * Receives one event per bisection done by InertialPartitioner
+ * (see InertialPartitioner.setListener).
+ *
+ * getLinesParallel bisects regions on several threads at once, so an
+ * implementation must be thread-safe.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public interface PartitionListener
+{
+    /**
+     * Called once the region [from, to) has been divided by line.
+     *
+     * @param from first index of the region (inclusive)
+     * @param to last index of the region (exclusive)
+     * @param moments the moments of the region (centroid, x1, x2, x3)
+     * @param lambda the smallest eigenvalue of [x1 x2, x2 x3]
+     * @param line the line dividing the region; its sbar and split offset
+     * @param elapsedNanos time spent computing the line and splitting the region
+     */
+    void bisected(int from, int to, Moments moments, double lambda, Line line, long elapsedNanos);
+}
@@ -0,0 +1,290 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of the partitioner, collected while it runs and exposed
+ * over JMX (see register), with no external service:
+ *  - the number of bisections and points bisected, and the bisections per
+ *    second since the last reset;
+ *  - a latency histogram per phase of getLine (see Phase);
+ *  - the bytes allocated per bisection by the calling thread once the
+ *    moments are known (HotSpot only);
+ *  - the distribution of the imbalance of the bisections (Line.getImbalance);
+ *  - the number of regions waiting in getLines (see getPartitionTree).
+ *
+ * Recording is lock-free (striped counters and atomic histograms, see
+ * Histogram), so the metrics can stay on in production. Metrics are off
+ * until InertialPartitioner.setMetrics is called.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class PartitionMetrics implements PartitionMetricsMBean
+{
+    /**
+     * The phases of getLine
+     */
+    public enum Phase
+    {
+        MOMENTS,   //centroid and x1, x2, x3
+        EIGEN,     //lambda and [a, b]
+        MEDIAN,    //the sj and sbar
+        PARTITION  //reordering the points on either side
+    }
+
+    public static final String OBJECT_NAME = "api:type=PartitionMetrics";
+
+    private static final double PPM = 1e6;
+
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    private final StripedCounter bisections = new StripedCounter();
+    private final StripedCounter points = new StripedCounter();
+    private final Histogram allocated = new Histogram();
+    private final Histogram imbalance = new Histogram();   //in parts per million
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private volatile long startNanos = System.nanoTime();
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION = isAllocationSupported();
+
+    public PartitionMetrics()
+    {
+        for (int p = 0; p < phases.length; ++p)
+            phases[p] = new Histogram();
+    }
+
+    private static boolean isAllocationSupported()
+    {
+        try
+        {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                   && ((com.sun.management.ThreadMXBean)THREADS).isThreadAllocatedMemorySupported()
+                   && ((com.sun.management.ThreadMXBean)THREADS).isThreadAllocatedMemoryEnabled();
+        }
+        catch (LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, -1 if the
+     * JVM cannot tell
+     */
+    static long getAllocatedBytes()
+    {
+        if (!ALLOCATION)
+            return -1;
+        return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * OBJECT_NAME
+     *
+     * @return the name
+     * @throws JMException if the name is already registered
+     */
+    public ObjectName register() throws JMException
+    {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Unregisters OBJECT_NAME from the platform MBean server, if registered
+     *
+     * @throws JMException
+     */
+    public void unregister() throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+    }
+
+    /**
+     * Records one bisection
+     *
+     * @param size number of points of the region
+     * @param phaseNanos time spent in each phase, indexed by Phase.ordinal()
+     * @param allocatedBytes bytes allocated, -1 if unknown
+     * @param imbalance the imbalance of the line, in [0, 1]
+     */
+    void recordBisection(int size, long[] phaseNanos, long allocatedBytes, double imbalance)
+    {
+        bisections.add(1);
+        points.add(size);
+        for (int p = 0; p < phases.length; ++p)
+            phases[p].record(phaseNanos[p]);
+        if (allocatedBytes >= 0)
+            allocated.record(allocatedBytes);
+        this.imbalance.record(Math.round(imbalance * PPM));
+    }
+
+    /**
+     * Records the number of regions waiting to be split
+     */
+    void recordQueueDepth(int depth)
+    {
+        queueDepth.set(depth);
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth))
+            max = maxQueueDepth.get();
+    }
+
+    /**
+     * @param phase
+     * @return the q-quantile of the time spent in the phase, in nanoseconds
+     */
+    public long getPhaseQuantile(Phase phase, double q)
+    {
+        return phases[phase.ordinal()].getQuantile(q);
+    }
+
+    @Override
+    public long getBisectionCount()
+    {
+        return bisections.sum();
+    }
+
+    @Override
+    public long getPointCount()
+    {
+        return points.sum();
+    }
+
+    @Override
+    public double getBisectionsPerSecond()
+    {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return (seconds <= 0 ? 0 : bisections.sum() / seconds);
+    }
+
+    @Override
+    public String[] getPhaseNames()
+    {
+        Phase[] values = Phase.values();
+        String[] names = new String[values.length];
+        for (int p = 0; p < values.length; ++p)
+            names[p] = values[p].name();
+        return names;
+    }
+
+    @Override
+    public double[] getPhaseMeanNanos()
+    {
+        double[] means = new double[phases.length];
+        for (int p = 0; p < phases.length; ++p)
+            means[p] = phases[p].getMean();
+        return means;
+    }
+
+    @Override
+    public long[] getPhaseP50Nanos()
+    {
+        return getPhaseQuantiles(0.5);
+    }
+
+    @Override
+    public long[] getPhaseP99Nanos()
+    {
+        return getPhaseQuantiles(0.99);
+    }
+
+    @Override
+    public long[] getPhaseMaxNanos()
+    {
+        long[] max = new long[phases.length];
+        for (int p = 0; p < phases.length; ++p)
+            max[p] = phases[p].getMax();
+        return max;
+    }
+
+    private long[] getPhaseQuantiles(double q)
+    {
+        long[] quantiles = new long[phases.length];
+        for (int p = 0; p < phases.length; ++p)
+            quantiles[p] = phases[p].getQuantile(q);
+        return quantiles;
+    }
+
+    @Override
+    public double getAllocatedBytesPerBisection()
+    {
+        return allocated.getMean();
+    }
+
+    @Override
+    public double getImbalanceP50()
+    {
+        return imbalance.getQuantile(0.5) / PPM;
+    }
+
+    @Override
+    public double getImbalanceP99()
+    {
+        return imbalance.getQuantile(0.99) / PPM;
+    }
+
+    @Override
+    public double getImbalanceMax()
+    {
+        return imbalance.getMax() / PPM;
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+    @Override
+    public int getMaxQueueDepth()
+    {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        for (Histogram phase : phases)
+            phase.reset();
+        bisections.reset();
+        points.reset();
+        allocated.reset();
+        imbalance.reset();
+        queueDepth.set(0);
+        maxQueueDepth.set(0);
+        startNanos = System.nanoTime();
+    }
+}
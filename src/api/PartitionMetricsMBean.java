@@ -0,0 +1,62 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+/**
+ * The attributes and operations PartitionMetrics exposes over JMX.
+ * Times are in nanoseconds; the phase arrays are indexed like
+ * getPhaseNames().
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public interface PartitionMetricsMBean
+{
+    long getBisectionCount();
+
+    long getPointCount();
+
+    double getBisectionsPerSecond();
+
+    String[] getPhaseNames();
+
+    double[] getPhaseMeanNanos();
+
+    long[] getPhaseP50Nanos();
+
+    long[] getPhaseP99Nanos();
+
+    long[] getPhaseMaxNanos();
+
+    double getAllocatedBytesPerBisection();
+
+    double getImbalanceP50();
+
+    double getImbalanceP99();
+
+    double getImbalanceMax();
+
+    int getQueueDepth();
+
+    int getMaxQueueDepth();
+
+    void reset();
+}
@@ -0,0 +1,313 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The nesting of the bisections done by getLines: every internal node holds
+ * the line that divided its region, every leaf is one of the final regions.
+ *
+ * Regions are numbered 0, 1, ... in the order they appear in the point set
+ * (region r is [getRegionFrom(r), getRegionTo(r)) of the partitioned set),
+ * which is also the left-to-right order of the leaves.
+ * locate(x, y) finds the region of any point by walking down from the root,
+ * one side membership test per level, without allocating.
+ *
+ * For bulk labelling, getPartition fills a partition vector (the region of
+ * every point, indexed by point id) in one pass over the regions, and
+ * getRegionPath packs the path from the root to a region into a long.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class PartitionTree
+{
+    /**
+     * The deepest tree whose paths fit in a long, with the leading 1 bit
+     */
+    public static final int MAX_PATH_DEPTH = 62;
+
+    private final PointSet points;
+    private final TreeNode root;
+    private final List<Line> lines;
+    private final int[] regionFrom;
+    private final int[] regionTo;
+    private final long[] regionPaths; //null if depth > MAX_PATH_DEPTH
+    private final int depth;
+
+    /**
+     * @param points the partitioned set
+     * @param root the region that was partitioned
+     * @param lines the lines, in the order they were computed
+     */
+    PartitionTree(PointSet points, TreeNode root, List<Line> lines)
+    {
+        this.points = points;
+        this.root = root;
+        this.lines = Collections.unmodifiableList(lines);
+
+        List<TreeNode> leaves = new ArrayList<TreeNode>();
+        depth = collectLeaves(root, 0, leaves);
+        regionFrom = new int[leaves.size()];
+        regionTo = new int[leaves.size()];
+        for (int r = 0; r < leaves.size(); ++r)
+        {
+            TreeNode leaf = leaves.get(r);
+            leaf.region = r;
+            regionFrom[r] = leaf.from;
+            regionTo[r] = leaf.to;
+        }
+
+        if (depth <= MAX_PATH_DEPTH)
+        {
+            regionPaths = new long[leaves.size()];
+            collectPaths(root, 1, regionPaths);
+        }
+        else
+            regionPaths = null;
+    }
+
+    /**
+     * Records the path of every leaf under node, path being the path of node
+     */
+    private static void collectPaths(TreeNode node, long path, long[] paths)
+    {
+        if (node.line == null)
+            paths[node.region] = path;
+        else
+        {
+            collectPaths(node.left, path << 1, paths);
+            collectPaths(node.right, (path << 1) | 1, paths);
+        }
+    }
+
+    /**
+     * Adds the leaves under node to leaves, left to right
+     *
+     * @return the depth of the subtree under node, counted from level
+     */
+    private static int collectLeaves(TreeNode node, int level, List<TreeNode> leaves)
+    {
+        if (node.line == null)
+        {
+            leaves.add(node);
+            return level;
+        }
+        return Math.max(collectLeaves(node.left, level + 1, leaves),
+                        collectLeaves(node.right, level + 1, leaves));
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the id of the region containing the point (x, y)
+     */
+    public int locate(double x, double y)
+    {
+        TreeNode node = root;
+        while (node.line != null)
+            node = (node.line.getSideMembership(x, y) == SideMembership.LEFT ? node.left : node.right);
+        return node.region;
+    }
+
+    /**
+     * @param node
+     * @return the id of the region containing the given node
+     */
+    public int locate(Node node)
+    {
+        return locate(node.getX(), node.getY());
+    }
+
+    /**
+     * @param r region id
+     * @return the path from the root to region r as the bits of a long: a 
+     * leading 1, then one bit per level from the root down, 0 for the LEFT
+     * side and 1 for the RIGHT side (so 1 alone is the root, and paths of 
+     * different lengths never collide)
+     * @throws IllegalStateException if the tree is deeper than MAX_PATH_DEPTH
+     */
+    public long getRegionPath(int r)
+    {
+        if (regionPaths == null)
+            throw new IllegalStateException("The tree is deeper than " + MAX_PATH_DEPTH);
+        return regionPaths[r];
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the path of the region containing the point (x, y) (see 
+     * getRegionPath)
+     */
+    public long getPath(double x, double y)
+    {
+        return getRegionPath(locate(x, y));
+    }
+
+    /**
+     * @return the partition vector: the region of every point of the 
+     * partitioned set, indexed by point id; ids no point has get -1.
+     * Ids must be >= 0.
+     */
+    public int[] getPartition()
+    {
+        int maxId = -1;
+        for (int i = 0; i < points.size(); ++i)
+            maxId = Math.max(maxId, points.getId(i));
+
+        int[] partition = new int[maxId + 1];
+        Arrays.fill(partition, -1);
+        getPartition(partition);
+        return partition;
+    }
+
+    /**
+     * Sets partition[id] to the region of the point with that id, for every
+     * point of the partitioned set (which must not have been reordered since
+     * it was partitioned)
+     *
+     * @param partition indexed by point id, longer than the largest id
+     */
+    public void getPartition(int[] partition)
+    {
+        for (int r = 0; r < regionFrom.length; ++r)
+            for (int i = regionFrom[r]; i < regionTo[r]; ++i)
+                partition[points.getId(i)] = r;
+    }
+
+    /**
+     * @return this tree compiled into flat arrays, for batch classification
+     */
+    public FlatPartitionTree flatten()
+    {
+        //Internal nodes in breadth-first order
+        List<TreeNode> internal = new ArrayList<TreeNode>(lines.size());
+        ArrayDeque<TreeNode> queue = new ArrayDeque<TreeNode>();
+        if (root.line != null)
+            queue.add(root);
+        while (!queue.isEmpty())
+        {
+            TreeNode node = queue.poll();
+            node.index = internal.size();
+            internal.add(node);
+            if (node.left.line != null)
+                queue.add(node.left);
+            if (node.right.line != null)
+                queue.add(node.right);
+        }
+
+        final int N = internal.size();
+        double[] a = new double[N], b = new double[N], xbar = new double[N], ybar = new double[N], sbar = new double[N];
+        int[] next = new int[2 * N];
+        for (int i = 0; i < N; ++i)
+        {
+            TreeNode node = internal.get(i);
+            a[i] = node.line.getA();
+            b[i] = node.line.getB();
+            xbar[i] = node.line.getXbar();
+            ybar[i] = node.line.getYbar();
+            sbar[i] = node.line.getSbar();
+            next[2 * i] = (node.left.line != null ? node.left.index : ~node.left.region);
+            next[2 * i + 1] = (node.right.line != null ? node.right.index : ~node.right.region);
+        }
+
+        return new FlatPartitionTree(a, b, xbar, ybar, sbar, next, getRegionCount());
+    }
+
+    TreeNode getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return the lines, in the order getLines returns them
+     */
+    public List<Line> getLines()
+    {
+        return lines;
+    }
+
+    public int getRegionCount()
+    {
+        return regionFrom.length;
+    }
+
+    /**
+     * @return the first index of region r in the partitioned point set
+     */
+    public int getRegionFrom(int r)
+    {
+        return regionFrom[r];
+    }
+
+    /**
+     * @return the index after the last one of region r in the partitioned point set
+     */
+    public int getRegionTo(int r)
+    {
+        return regionTo[r];
+    }
+
+    /**
+     * @return the number of lines on the longest path from the root to a region
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * A region [from, to) of the point set; once divided, it holds the line
+     * and the two halves.
+     */
+    static final class TreeNode
+    {
+        final int from;
+        final int to;
+        Line line;      //null for a leaf
+        TreeNode left;
+        TreeNode right;
+        int region = -1; //region id of a leaf
+        int index = -1;  //breadth-first index of an internal node (see flatten)
+
+        TreeNode(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Records the line dividing this region and creates the two halves
+         */
+        void split(Line line)
+        {
+            this.line = line;
+            left = new TreeNode(from, line.getSplit());
+            right = new TreeNode(line.getSplit(), to);
+        }
+    }
+}
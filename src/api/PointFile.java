@@ -0,0 +1,637 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A binary point file, loaded by mapping it into memory (no parsing, no copy).
+ *
+ * Layout, all values little-endian:
+ *  - header (HEADER_SIZE bytes): int32 MAGIC, int32 VERSION, int32 flags
+ *    (HAS_IDS | HAS_WEIGHTS), int32 count, int32 minX, minY, maxX, maxY
+ *  - int32 x[count]
+ *  - int32 y[count]
+ *  - int32 id[count], if flags has HAS_IDS (otherwise the id of a point is
+ *    its position in the file)
+ *  - float32 weight[count], if flags has HAS_WEIGHTS
+ *
+ * convert(text, binary) turns a text file of "x y" lines (such as
+ * floor_plan.png_1374_availCell.txt) into a point file, which is also what
+ * running this class does: java api.PointFile input.txt output.pts
+ *
+ * Files too large for memory are read and written a chunk at a time
+ * with Reader and Writer.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class PointFile
+{
+    public static final int MAGIC = 0x53545049; //"IPTS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final int HAS_IDS = 1;
+    public static final int HAS_WEIGHTS = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16; //a multiple of 4
+
+    private final File file;
+    private final int flags;
+    private final int count;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    private PointFile(File file, int flags, int count, int minX, int minY, int maxX, int maxY)
+    {
+        this.file = file;
+        this.flags = flags;
+        this.count = count;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Reads and checks the header of the given point file
+     *
+     * @param file
+     * @return the point file
+     * @throws IOException if the file is not a valid point file
+     */
+    public static PointFile open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining())
+                if (channel.read(header) < 0)
+                    throw new IOException(file + ": not a point file (too short)");
+            header.flip();
+
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + ": not a point file (bad magic number)");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + ": unsupported point file version " + version);
+
+            PointFile pointFile = new PointFile(file, header.getInt(), header.getInt(),
+                                                header.getInt(), header.getInt(),
+                                                header.getInt(), header.getInt());
+            if (pointFile.count < 0 || channel.size() != pointFile.getExpectedSize())
+                throw new IOException(file + ": size does not match the header");
+            return pointFile;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Same as open(file).map()
+     *
+     * @param file
+     * @return a point set over the columns of the given file
+     * @throws IOException
+     */
+    public static OffHeapPointSet map(File file) throws IOException
+    {
+        return open(file).map();
+    }
+
+    /**
+     * Maps the columns of this file into memory. The returned set reads them
+     * in place; partitioning it never writes the file (see OffHeapPointSet).
+     *
+     * @return a point set over the columns of this file
+     * @throws IOException
+     */
+    public OffHeapPointSet map() throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            //Each column is mapped in segments, each below 2 GB
+            FileChannel channel = raf.getChannel();
+            long columnSize = 4L * count;
+            long position = HEADER_SIZE;
+
+            OffHeapColumn xs = OffHeapColumn.map(channel, position, count);
+            position += columnSize;
+            OffHeapColumn ys = OffHeapColumn.map(channel, position, count);
+            position += columnSize;
+
+            OffHeapColumn ids = null;
+            if (hasIds())
+            {
+                ids = OffHeapColumn.map(channel, position, count);
+                position += columnSize;
+            }
+
+            OffHeapColumn weights = null;
+            if (hasWeights())
+                weights = OffHeapColumn.map(channel, position, count);
+
+            //The mappings stay valid once the channel is closed
+            return new OffHeapPointSet(count, xs, ys, ids, weights, true, OffHeapColumn.SEGMENT_SHIFT);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private long getExpectedSize()
+    {
+        int columns = 2 + (hasIds() ? 1 : 0) + (hasWeights() ? 1 : 0);
+        return HEADER_SIZE + 4L * count * columns;
+    }
+
+    /**
+     * Writes the given points to a point file. The id column is written
+     * only if the ids are not 0, 1, ..., N - 1; the weight column only if
+     * the points carry weights.
+     *
+     * @param points
+     * @param file
+     * @throws IOException
+     */
+    public static void write(PointSet points, File file) throws IOException
+    {
+        final int N = points.size();
+        boolean sequentialIds = true;
+        for (int i = 0; i < N && sequentialIds; ++i)
+            sequentialIds = (points.getId(i) == i);
+
+        Writer writer = new Writer(file, N, !sequentialIds, points.hasWeights());
+        try
+        {
+            for (int i = 0; i < N; ++i)
+                writer.add(points.getX(i), points.getY(i), points.getId(i), (float)points.getWeight(i));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes points (xs[i], ys[i]), for i in [0, count), to a point file
+     *
+     * @param file
+     * @param count
+     * @param xs
+     * @param ys
+     * @param ids the ids, or null to write no id column
+     * @param weights the weights, or null to write no weight column
+     * @throws IOException
+     */
+    public static void write(File file, int count, int[] xs, int[] ys, int[] ids, float[] weights) throws IOException
+    {
+        Writer writer = new Writer(file, count, ids != null, weights != null);
+        try
+        {
+            for (int i = 0; i < count; ++i)
+                writer.add(xs[i], ys[i], (ids != null ? ids[i] : i), (weights != null ? weights[i] : 1));
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Converts a text file with one "x y" pair per line (blank lines are
+     * skipped) into a point file without id or weight columns: the id of
+     * a point is its line number among the non-blank lines, from 0.
+     *
+     * @param text
+     * @param binary
+     * @return the number of points
+     * @throws IOException if the text file cannot be read or parsed
+     */
+    public static int convert(File text, File binary) throws IOException
+    {
+        int[] xs = new int[1024];
+        int[] ys = new int[1024];
+        int count = 0;
+
+        BufferedReader reader = new BufferedReader(new FileReader(text));
+        try
+        {
+            String line;
+            int lineNumber = 0;
+            int[] pair = new int[2];
+            while ((line = reader.readLine()) != null)
+            {
+                ++lineNumber;
+                if (line.trim().isEmpty())
+                    continue;
+                if (!parsePair(line, pair))
+                    throw new IOException(text + ":" + lineNumber + ": expected \"x y\" but was \"" + line + "\"");
+
+                if (count == xs.length)
+                {
+                    xs = Arrays.copyOf(xs, 2 * count);
+                    ys = Arrays.copyOf(ys, 2 * count);
+                }
+                xs[count] = pair[0];
+                ys[count] = pair[1];
+                ++count;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        write(binary, count, xs, ys, null, null);
+        return count;
+    }
+
+    /**
+     * Parses two whitespace-separated integers
+     *
+     * @return false if line is not made of exactly two integers
+     */
+    private static boolean parsePair(String line, int[] pair)
+    {
+        int i = 0;
+        final int N = line.length();
+        for (int k = 0; k < 2; ++k)
+        {
+            while (i < N && Character.isWhitespace(line.charAt(i)))
+                ++i;
+
+            boolean negative = (i < N && line.charAt(i) == '-');
+            if (negative)
+                ++i;
+
+            int start = i;
+            long value = 0;
+            while (i < N && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+            {
+                value = 10 * value + (line.charAt(i++) - '0');
+                if (value > Integer.MAX_VALUE + 1L)
+                    return false;
+            }
+            if (i == start)
+                return false;
+
+            value = (negative ? -value : value);
+            if (value > Integer.MAX_VALUE)
+                return false;
+            pair[k] = (int)value;
+        }
+
+        while (i < N && Character.isWhitespace(line.charAt(i)))
+            ++i;
+        return i == N;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: java api.PointFile <text file> <point file>");
+            System.exit(1);
+        }
+        int count = convert(new File(args[0]), new File(args[1]));
+        System.out.printf("%d points written to %s\n", count, args[1]);
+    }
+
+    /**
+     * Reads a point file sequentially, one chunk of points at a time, for
+     * files too large to be held in memory (or mapped) at once.
+     */
+    public static class Reader implements Closeable
+    {
+        private final PointFile pointFile;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final int[] xs;
+        private final int[] ys;
+        private final int[] ids;
+        private final float[] weights;
+        private int position = 0;
+
+        /**
+         * @param file
+         * @param chunkSize the maximum number of points read by next()
+         * @throws IOException
+         */
+        public Reader(File file, int chunkSize) throws IOException
+        {
+            pointFile = open(file);
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            buffer = ByteBuffer.allocateDirect(4 * chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+            xs = new int[chunkSize];
+            ys = new int[chunkSize];
+            ids = new int[chunkSize];
+            weights = (pointFile.hasWeights() ? new float[chunkSize] : null);
+        }
+
+        /**
+         * Reads the next chunk into getXs(), getYs(), getIds() and getWeights()
+         *
+         * @return the number of points read, 0 at the end of the file
+         * @throws IOException
+         */
+        public int next() throws IOException
+        {
+            int n = Math.min(xs.length, pointFile.count - position);
+            if (n <= 0)
+                return 0;
+
+            long columnSize = 4L * pointFile.count;
+            long offset = HEADER_SIZE + 4L * position;
+            readColumn(offset, n).get(xs, 0, n);
+            readColumn(offset + columnSize, n).get(ys, 0, n);
+            offset += 2 * columnSize;
+
+            if (pointFile.hasIds())
+            {
+                readColumn(offset, n).get(ids, 0, n);
+                offset += columnSize;
+            }
+            else
+                for (int i = 0; i < n; ++i)
+                    ids[i] = position + i;
+
+            if (weights != null)
+            {
+                buffer.clear().limit(4 * n);
+                readFully(offset);
+                buffer.asFloatBuffer().get(weights, 0, n);
+            }
+
+            position += n;
+            return n;
+        }
+
+        private IntBuffer readColumn(long offset, int n) throws IOException
+        {
+            buffer.clear().limit(4 * n);
+            readFully(offset);
+            return buffer.asIntBuffer();
+        }
+
+        private void readFully(long offset) throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                int read = channel.read(buffer, offset);
+                if (read < 0)
+                    throw new IOException(pointFile.file + ": unexpected end of file");
+                offset += read;
+            }
+            buffer.flip();
+        }
+
+        public PointFile getPointFile()
+        {
+            return pointFile;
+        }
+
+        public int[] getXs()
+        {
+            return xs;
+        }
+
+        public int[] getYs()
+        {
+            return ys;
+        }
+
+        /**
+         * @return the ids (the positions in the file if it has no id column)
+         */
+        public int[] getIds()
+        {
+            return ids;
+        }
+
+        /**
+         * @return the weights, or null if the file has none
+         */
+        public float[] getWeights()
+        {
+            return weights;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a point file whose number of points is known in advance, one
+     * point at a time. Each column is buffered and written at its place in
+     * the file; the header (with the bounds) is written by close().
+     */
+    public static class Writer implements Closeable
+    {
+        private final File file;
+        private final int count;
+        private final int flags;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer[] columns;
+        private final long[] offsets;
+        private int written = 0;
+        private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        /**
+         * @param file
+         * @param count the number of points that will be added
+         * @param ids whether to write an id column
+         * @param weights whether to write a weight column
+         * @throws IOException
+         */
+        public Writer(File file, int count, boolean ids, boolean weights) throws IOException
+        {
+            if (count < 0)
+                throw new IllegalArgumentException("count must be >= 0");
+
+            this.file = file;
+            this.count = count;
+            flags = (ids ? HAS_IDS : 0) | (weights ? HAS_WEIGHTS : 0);
+            int columnCount = 2 + (ids ? 1 : 0) + (weights ? 1 : 0);
+
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            columns = new ByteBuffer[4];
+            offsets = new long[4];
+            for (int c = 0, k = 0; c < 4; ++c)
+            {
+                if ((c == 2 && !ids) || (c == 3 && !weights))
+                    continue;
+                columns[c] = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                offsets[c] = HEADER_SIZE + 4L * count * k++;
+            }
+            raf.setLength(HEADER_SIZE + 4L * count * columnCount);
+        }
+
+        /**
+         * Adds a point; id and weight are ignored if the file has no such column
+         *
+         * @throws IOException
+         */
+        public void add(int x, int y, int id, float weight) throws IOException
+        {
+            if (written == count)
+                throw new IllegalStateException(file + ": more than " + count + " points added");
+
+            if (!columns[0].hasRemaining())
+                for (int c = 0; c < 4; ++c)
+                    flush(c);
+
+            columns[0].putInt(x);
+            columns[1].putInt(y);
+            if (columns[2] != null)
+                columns[2].putInt(id);
+            if (columns[3] != null)
+                columns[3].putFloat(weight);
+
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            ++written;
+        }
+
+        private void flush(int c) throws IOException
+        {
+            ByteBuffer column = columns[c];
+            if (column == null)
+                return;
+
+            column.flip();
+            while (column.hasRemaining())
+                offsets[c] += channel.write(column, offsets[c]);
+            column.clear();
+        }
+
+        /**
+         * @return the number of points added so far
+         */
+        public int getWritten()
+        {
+            return written;
+        }
+
+        /**
+         * Writes the remaining points and the header
+         *
+         * @throws IOException if fewer points than announced were added
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                for (int c = 0; c < 4; ++c)
+                    flush(c);
+                if (written != count)
+                    throw new IOException(file + ": " + written + " points added instead of " + count);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(count);
+                if (count > 0)
+                    header.putInt(minX).putInt(minY).putInt(maxX).putInt(maxY);
+                else
+                    header.putInt(0).putInt(0).putInt(0).putInt(0);
+                header.flip();
+
+                long offset = 0;
+                while (header.hasRemaining())
+                    offset += channel.write(header, offset);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public boolean hasIds()
+    {
+        return (flags & HAS_IDS) != 0;
+    }
+
+    public boolean hasWeights()
+    {
+        return (flags & HAS_WEIGHTS) != 0;
+    }
+
+    public int getMinX()
+    {
+        return minX;
+    }
+
+    public int getMinY()
+    {
+        return minY;
+    }
+
+    public int getMaxX()
+    {
+        return maxX;
+    }
+
+    public int getMaxY()
+    {
+        return maxY;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of points: point i is (getX(i), getY(i)) and carries the id getId(i).
+ * The points are stored as columns (structure of arrays), either in Java
+ * arrays (wrap, fromNodes) or off the heap (OffHeapPointSet), allocated
+ * (allocateOffHeap) or mapped from a point file (PointFile.map).
+ * A set built from nodes also keeps a reference to each Node, so that the 
+ * regions can be handed back as the very same Node objects.
+ *
+ * The partitioner never copies a PointSet. A region is a range [from, to)
+ * of indices, and bisecting a region reorders the points inside that range
+ * in place so that the two halves are again contiguous ranges.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public abstract class PointSet
+{
+    PointSet()
+    {
+    }
+
+    /**
+     * Uses the given arrays directly (no copy). They will be reordered by
+     * the partitioner.
+     *
+     * @param ids
+     * @param xs
+     * @param ys
+     * @return a point set backed by the given arrays
+     */
+    public static PointSet wrap(int[] ids, int[] xs, int[] ys)
+    {
+        return new ArrayPointSet(ids, xs, ys, null, null);
+    }
+
+    /**
+     * Same as wrap(int[], int[], int[]), for weighted points
+     *
+     * @param ids
+     * @param xs
+     * @param ys
+     * @param weights the weight of each point (>= 0)
+     * @return a point set backed by the given arrays
+     */
+    public static PointSet wrap(int[] ids, int[] xs, int[] ys, double[] weights)
+    {
+        return new ArrayPointSet(ids, xs, ys, weights, null);
+    }
+
+    /**
+     * Allocates a point set off the Java heap, to be filled with 
+     * OffHeapPointSet.set (and setWeight); see OffHeapPointSet.
+     *
+     * @param size
+     * @param hasIds false to use the position of each point as its id
+     * @param hasWeights
+     * @return a set of size points at (0, 0)
+     */
+    public static OffHeapPointSet allocateOffHeap(int size, boolean hasIds, boolean hasWeights)
+    {
+        if (size < 0)
+            throw new IllegalArgumentException("size must be >= 0");
+        return OffHeapPointSet.allocate(size, hasIds, hasWeights, OffHeapColumn.SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param nodes
+     * @return a point set holding the id and coordinates of each node, in
+     * iteration order; it carries their weights unless they are all 1
+     */
+    public static PointSet fromNodes(Collection<Node> nodes)
+    {
+        final int N = nodes.size();
+        int[] ids = new int[N];
+        int[] xs = new int[N];
+        int[] ys = new int[N];
+        double[] weights = new double[N];
+        Node[] refs = new Node[N];
+        boolean weighted = false;
+
+        int i = 0;
+        for (Node node : nodes)
+        {
+            refs[i] = node;
+            ids[i] = node.getId();
+            xs[i] = node.getX();
+            ys[i] = node.getY();
+            weights[i] = node.getWeight();
+            weighted |= (weights[i] != 1);
+            ++i;
+        }
+
+        return new ArrayPointSet(ids, xs, ys, (weighted ? weights : null), refs);
+    }
+
+    /**
+     * The returned list is read-only. If this set was built from nodes, it
+     * is a view of those nodes in the current order of the set; otherwise
+     * it holds new Node objects.
+     *
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the nodes for the points in [from, to)
+     */
+    public List<Node> toNodes(int from, int to)
+    {
+        List<Node> list = new ArrayList<Node>(to - from);
+        for (int i = from; i < to; ++i)
+            list.add(getNode(i));
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return the nodes for all the points in this set (see toNodes(int, int))
+     */
+    public List<Node> toNodes()
+    {
+        return toNodes(0, size());
+    }
+
+    /**
+     * @param i
+     * @return the Node point i was built from, or a new Node holding its id,
+     * coordinates and weight
+     */
+    public Node getNode(int i)
+    {
+        return new Node(getId(i), getX(i), getY(i), getWeight(i));
+    }
+
+    public abstract int size();
+
+    public abstract int getId(int i);
+
+    public abstract int getX(int i);
+
+    public abstract int getY(int i);
+
+    /**
+     * @return true if the points carry weights
+     */
+    public boolean hasWeights()
+    {
+        return false;
+    }
+
+    /**
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the total weight of points [from, to) (to - from if the 
+     * points carry no weights)
+     */
+    public double getWeight(int from, int to)
+    {
+        if (!hasWeights())
+            return to - from;
+
+        double weight = 0;
+        for (int i = from; i < to; ++i)
+            weight += getWeight(i);
+        return weight;
+    }
+
+    /**
+     * @param i
+     * @return the weight of point i (1 if the points carry no weights)
+     */
+    public double getWeight(int i)
+    {
+        return 1;
+    }
+
+    /**
+     * Swaps points i and j (id, coordinates and everything else they carry)
+     *
+     * @param i
+     * @param j
+     */
+    public abstract void swap(int i, int j);
+
+    /**
+     * Adds the points [from, to) to the given moments
+     */
+    void addTo(Moments moments, int from, int to)
+    {
+        if (hasWeights())
+            for (int i = from; i < to; ++i)
+                moments.add(getX(i), getY(i), getWeight(i));
+        else
+            for (int i = from; i < to; ++i)
+                moments.add(getX(i), getY(i));
+    }
+
+    /**
+     * Sets out[offset + i - from] to the sj of point i relative to the line
+     * through (xbar, ybar) with direction [a, b] (see Line.getSj), for i in
+     * [from, to)
+     */
+    void project(int from, int to, double a, double b, double xbar, double ybar, double[] out, int offset)
+    {
+        for (int i = from; i < to; ++i)
+            out[offset + i - from] = Line.getSj(getX(i), getY(i), a, b, xbar, ybar);
+    }
+
+    /**
+     * Reorders the points in [from, to) so that those on the LEFT side of
+     * the given line come first.
+     *
+     * @param line
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the index of the first point on the RIGHT side; [from, split)
+     * is the left region and [split, to) the right one
+     */
+    public int partition(Line line, int from, int to)
+    {
+        int i = from;
+        int j = to - 1;
+
+        while (true)
+        {
+            while (i <= j && line.getSideMembership(getX(i), getY(i)) == SideMembership.LEFT)
+                ++i;
+            while (i <= j && line.getSideMembership(getX(j), getY(j)) == SideMembership.RIGHT)
+                --j;
+            if (i >= j)
+                return i;
+            swap(i++, j--);
+        }
+    }
+}
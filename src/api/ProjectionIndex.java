@@ -0,0 +1,257 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+
+/**
+ * An order-statistic multiset of projections sj: add, remove, rank and
+ * select in expected O(log N).
+ * It is a treap whose entries count the size of their subtree.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class ProjectionIndex
+{
+    private Entry root;
+    private int seed = 0x2545F491; //xorshift state for the priorities
+    private boolean removed;
+
+    /**
+     * @param line
+     * @param points
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @return the index of the projections of points [from, to) on the given line
+     */
+    static ProjectionIndex of(Line line, PointSet points, int from, int to)
+    {
+        final int N = to - from;
+        double[] sValues = new double[N];
+        points.project(from, to, line.getA(), line.getB(), line.getXbar(), line.getYbar(), sValues, 0);
+        Arrays.sort(sValues);
+
+        //Cartesian tree of the sorted values, built with a stack in O(N)
+        ProjectionIndex index = new ProjectionIndex();
+        Entry[] stack = new Entry[N];
+        int top = 0;
+        for (int i = 0; i < N; ++i)
+        {
+            Entry e = new Entry(sValues[i], index.nextPriority());
+            Entry last = null;
+            while (top > 0 && stack[top - 1].priority < e.priority)
+                last = stack[--top];
+            e.left = last;
+            if (top > 0)
+                stack[top - 1].right = e;
+            stack[top++] = e;
+        }
+        if (N > 0)
+        {
+            index.root = stack[0];
+            computeSizes(index.root);
+        }
+        return index;
+    }
+
+    private static int computeSizes(Entry t)
+    {
+        if (t == null)
+            return 0;
+        t.size = 1 + computeSizes(t.left) + computeSizes(t.right);
+        return t.size;
+    }
+
+    public int size()
+    {
+        return size(root);
+    }
+
+    public void add(double s)
+    {
+        root = insert(root, s, nextPriority());
+    }
+
+    /**
+     * Removes one occurrence of s
+     *
+     * @param s
+     * @return true if s was found
+     */
+    public boolean remove(double s)
+    {
+        removed = false;
+        root = remove(root, s);
+        return removed;
+    }
+
+    /**
+     * @param s
+     * @return the number of values strictly less than s
+     */
+    public int rank(double s)
+    {
+        int count = 0;
+        Entry t = root;
+        while (t != null)
+        {
+            if (t.key < s)
+            {
+                count += size(t.left) + 1;
+                t = t.right;
+            }
+            else
+                t = t.left;
+        }
+        return count;
+    }
+
+    /**
+     * @param i
+     * @return the i-th smallest value (from 0)
+     */
+    public double select(int i)
+    {
+        if (i < 0 || i >= size())
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+
+        Entry t = root;
+        while (true)
+        {
+            int leftSize = size(t.left);
+            if (i < leftSize)
+                t = t.left;
+            else if (i == leftSize)
+                return t.key;
+            else
+            {
+                i -= leftSize + 1;
+                t = t.right;
+            }
+        }
+    }
+
+    private Entry insert(Entry t, double s, int priority)
+    {
+        if (t == null)
+            return new Entry(s, priority);
+
+        if (s < t.key)
+        {
+            t.left = insert(t.left, s, priority);
+            if (t.left.priority > t.priority)
+                return rotateRight(t);
+        }
+        else
+        {
+            t.right = insert(t.right, s, priority);
+            if (t.right.priority > t.priority)
+                return rotateLeft(t);
+        }
+        t.size++;
+        return t;
+    }
+
+    private Entry remove(Entry t, double s)
+    {
+        if (t == null)
+            return null;
+
+        if (s < t.key)
+            t.left = remove(t.left, s);
+        else if (s > t.key)
+            t.right = remove(t.right, s);
+        else
+        {
+            removed = true;
+            return merge(t.left, t.right);
+        }
+        if (removed)
+            t.size--;
+        return t;
+    }
+
+    private static Entry merge(Entry l, Entry r)
+    {
+        if (l == null)
+            return r;
+        if (r == null)
+            return l;
+        if (l.priority > r.priority)
+        {
+            l.right = merge(l.right, r);
+            l.size = 1 + size(l.left) + size(l.right);
+            return l;
+        }
+        r.left = merge(l, r.left);
+        r.size = 1 + size(r.left) + size(r.right);
+        return r;
+    }
+
+    private static Entry rotateRight(Entry t)
+    {
+        Entry l = t.left;
+        t.left = l.right;
+        l.right = t;
+        t.size = 1 + size(t.left) + size(t.right);
+        l.size = 1 + size(l.left) + t.size;
+        return l;
+    }
+
+    private static Entry rotateLeft(Entry t)
+    {
+        Entry r = t.right;
+        t.right = r.left;
+        r.left = t;
+        t.size = 1 + size(t.left) + size(t.right);
+        r.size = 1 + t.size + size(r.right);
+        return r;
+    }
+
+    private static int size(Entry t)
+    {
+        return (t == null ? 0 : t.size);
+    }
+
+    private int nextPriority()
+    {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static final class Entry
+    {
+        final double key;
+        final int priority;
+        int size = 1;
+        Entry left;
+        Entry right;
+
+        Entry(double key, int priority)
+        {
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable quantile sketch (KLL: Karnin, Lang and Liberty, "Optimal
+ * Quantile Approximation in Streams", 2016) over a stream of doubles.
+ *
+ * Values are kept in compactors: an item at level h stands for 2^h values.
+ * When the sketch is full, the lowest full compactor is sorted and every
+ * other item (starting at a random offset) is promoted to the next level,
+ * the others are dropped. Capacities shrink by 2/3 per level down from the
+ * top one, which holds k items, so the sketch keeps O(k) items whatever
+ * the number of values.
+ * The rank of a value, hence a quantile, is off by at most about
+ * 2.5 / k * N with high probability (see getK).
+ *
+ * Sketches with the same k can be merged: a sketch per chunk, built in
+ * parallel, then merged, answers like one sketch of all the values.
+ * The offsets come from a seeded generator, so the same values added and
+ * merged in the same order always give the same sketch.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class QuantileSketch
+{
+    private static final double SHRINK = 2.0 / 3;
+
+    private final int k;
+    private double[][] levels;
+    private int[] sizes;
+    private int size = 0;      //number of items, all levels
+    private int maxSize;       //sum of the capacities
+    private long count = 0;    //number of values
+    private int seed;
+
+    /**
+     * @param k capacity of the top compactor (accuracy, see getK)
+     * @param seed seed of the compaction offsets
+     */
+    public QuantileSketch(int k, int seed)
+    {
+        if (k < 2)
+            throw new IllegalArgumentException("k must be >= 2");
+        this.k = k;
+        this.seed = (seed == 0 ? 0x2545F491 : seed);
+        levels = new double[0][];
+        sizes = new int[0];
+        grow();
+    }
+
+    /**
+     * @param rankError
+     * @return the k for which the rank error is about rankError * N
+     */
+    public static int getK(double rankError)
+    {
+        if (!(rankError > 0 && rankError < 1))
+            throw new IllegalArgumentException("rankError must be in (0, 1)");
+        return Math.max(8, (int)Math.ceil(2.5 / rankError));
+    }
+
+    private void grow()
+    {
+        int h = levels.length;
+        levels = Arrays.copyOf(levels, h + 1);
+        sizes = Arrays.copyOf(sizes, h + 1);
+        levels[h] = new double[8];
+
+        maxSize = 0;
+        for (int i = 0; i <= h; ++i)
+            maxSize += capacity(i);
+    }
+
+    private int capacity(int h)
+    {
+        int height = levels.length - h - 1;
+        return (int)Math.ceil(Math.pow(SHRINK, height) * k) + 1;
+    }
+
+    public void add(double value)
+    {
+        append(0, value);
+        ++count;
+        if (size >= maxSize)
+            compress();
+    }
+
+    /**
+     * Adds the values of other (which must have the same k) to this sketch
+     */
+    public void merge(QuantileSketch other)
+    {
+        if (other.k != k)
+            throw new IllegalArgumentException("Cannot merge sketches with different k");
+
+        while (levels.length < other.levels.length)
+            grow();
+        for (int h = 0; h < other.levels.length; ++h)
+            for (int i = 0; i < other.sizes[h]; ++i)
+                append(h, other.levels[h][i]);
+        count += other.count;
+
+        while (size >= maxSize)
+            compress();
+    }
+
+    private void append(int h, double value)
+    {
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+        levels[h][sizes[h]++] = value;
+        ++size;
+    }
+
+    /**
+     * Compacts the lowest full compactor
+     */
+    private void compress()
+    {
+        for (int h = 0; h < levels.length; ++h)
+        {
+            if (sizes[h] < capacity(h))
+                continue;
+            if (h + 1 == levels.length)
+                grow();
+
+            //An odd item out stays at this level
+            double[] items = levels[h];
+            int n = sizes[h];
+            int first = n & 1;
+            Arrays.sort(items, first, n);
+            for (int i = first + nextBit(); i < n; i += 2)
+                append(h + 1, items[i]);
+
+            sizes[h] = first;
+            size -= n - first;
+            return;
+        }
+    }
+
+    private int nextBit()
+    {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed & 1;
+    }
+
+    /**
+     * @return the number of values added (including merged sketches)
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @param value
+     * @return an estimate of the number of values < value
+     */
+    public long getRank(double value)
+    {
+        long rank = 0;
+        for (int h = 0; h < levels.length; ++h)
+            for (int i = 0; i < sizes[h]; ++i)
+                if (levels[h][i] < value)
+                    rank += 1L << h;
+        return rank;
+    }
+
+    /**
+     * @param q in [0, 1]
+     * @return an estimate of the q-quantile: the smallest kept value whose
+     * estimated rank (counting itself) reaches q * N
+     */
+    public double getQuantile(double q)
+    {
+        if (count == 0)
+            throw new IllegalStateException("The sketch is empty");
+
+        //Merge the sorted levels, smallest item first
+        final int H = levels.length;
+        double[][] sorted = new double[H][];
+        int[] next = new int[H];
+        for (int h = 0; h < H; ++h)
+        {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+        }
+
+        double target = q * count;
+        long cumulative = 0;
+        double value = Double.NaN;
+        while (true)
+        {
+            int min = -1;
+            for (int h = 0; h < H; ++h)
+                if (next[h] < sorted[h].length && (min < 0 || sorted[h][next[h]] < sorted[min][next[min]]))
+                    min = h;
+            if (min < 0)
+                return value; //q * N beyond the total weight (rounding): the largest item
+
+            value = sorted[min][next[min]++];
+            cumulative += 1L << min;
+            if (cumulative >= target)
+                return value;
+        }
+    }
+
+    /**
+     * @return the number of items kept
+     */
+    public int getSize()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,570 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+/**
+ * A rasterised floor plan stored as runs: maximal sequences of available
+ * cells on one row. The lines are computed from the runs, never from the
+ * cells:
+ *  - the moments of a run of L cells are closed-form sums over x in
+ *    [x0, x0 + L) (the arithmetic series and the sum of squares), so the
+ *    centroid and inertia cost O(runs);
+ *  - along a run, sj = a * (y - ybar) - b * (x - xbar) is monotone in x,
+ *    so the run is a sorted sequence of sj; sbar is found by selecting
+ *    the middle ranks across these sequences, counting the cells below a
+ *    pivot by binary search in each run, in O(runs * log(cells)) per round
+ *    and O(log(cells)) rounds;
+ *  - a line splits each run into at most two runs, so the regions of
+ *    getLines are runs too.
+ *
+ * getLines gives the same lines, bit for bit, as
+ * InertialPartitioner.getLines over toPointSet() (the available cells in
+ * row-major order) while the sums of the moments stay below 2^53: they are
+ * then exact, so Moments derives the same centroid and inertia from them
+ * whatever cell they were taken around, and the median is taken over the
+ * same sj values. Every cell thus falls in the same region either way.
+ *
+ * Cell (x, y) is at column x, row y; in a BitSet it is bit y * cols + x,
+ * as in CellGraph.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public final class RasterPlan
+{
+    /**
+     * Images are read as available where the pixel is at least this light
+     * (0 - 255), and opaque
+     */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    //Selection finishes over the sj themselves once this few remain per run
+    private static final int SORT_THRESHOLD = 4;
+    private static final double EXACT = 9007199254740992.0; //2^53
+
+    private final int rows;
+    private final int cols;
+    private final Runs runs;
+
+    private RasterPlan(int rows, int cols, Runs runs)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.runs = runs;
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @param cells the available cells, bit y * cols + x standing for the
+     * cell at column x, row y (bits past rows * cols are ignored)
+     * @return the plan
+     */
+    public static RasterPlan fromBitSet(int rows, int cols, BitSet cells)
+    {
+        if (rows < 0 || cols < 0 || (long)rows * cols > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Invalid grid %d x %d", rows, cols));
+
+        Runs runs = new Runs(16);
+        for (int y = 0; y < rows; ++y)
+        {
+            int rowEnd = (y + 1) * cols;
+            for (int c = cells.nextSetBit(y * cols); c >= 0 && c < rowEnd; c = cells.nextSetBit(c))
+            {
+                int end = Math.min(cells.nextClearBit(c), rowEnd);
+                runs.add(y, c - y * cols, end - y * cols);
+                c = end;
+            }
+        }
+        return new RasterPlan(rows, cols, runs);
+    }
+
+    /**
+     * @param image a floor plan mask, one pixel per cell
+     * @param threshold the lightest dark pixel + 1: pixels at least this
+     * light, and opaque, are available cells
+     * @return the plan
+     */
+    public static RasterPlan fromImage(BufferedImage image, int threshold)
+    {
+        final int rows = image.getHeight();
+        final int cols = image.getWidth();
+        int[] pixels = new int[cols];
+        Runs runs = new Runs(16);
+        for (int y = 0; y < rows; ++y)
+        {
+            image.getRGB(0, y, cols, 1, pixels, 0, cols);
+            int start = -1;
+            for (int x = 0; x <= cols; ++x)
+            {
+                boolean available = (x < cols && isAvailable(pixels[x], threshold));
+                if (available && start < 0)
+                    start = x;
+                else if (!available && start >= 0)
+                {
+                    runs.add(y, start, x);
+                    start = -1;
+                }
+            }
+        }
+        return new RasterPlan(rows, cols, runs);
+    }
+
+    /**
+     * Reads a floor plan mask (e.g. a PNG) with DEFAULT_THRESHOLD
+     *
+     * @param file
+     * @return the plan
+     * @throws IOException if the image cannot be read
+     */
+    public static RasterPlan read(File file) throws IOException
+    {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("Not a readable image: " + file);
+        return fromImage(image, DEFAULT_THRESHOLD);
+    }
+
+    private static boolean isAvailable(int argb, int threshold)
+    {
+        int alpha = argb >>> 24;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        return alpha >= 128 && (r * 299 + g * 587 + b * 114) / 1000 >= threshold;
+    }
+
+    /**
+     * @return the number of rows of the grid
+     */
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns of the grid
+     */
+    public int getColumnCount()
+    {
+        return cols;
+    }
+
+    /**
+     * @return the number of available cells
+     */
+    public long getCellCount()
+    {
+        return runs.cells;
+    }
+
+    /**
+     * @return the number of runs
+     */
+    public int getRunCount()
+    {
+        return runs.size;
+    }
+
+    /**
+     * @return the available cells
+     */
+    public BitSet toBitSet()
+    {
+        BitSet cells = new BitSet(rows * cols);
+        for (int r = 0; r < runs.size; ++r)
+            cells.set(runs.ys[r] * cols + runs.froms[r], runs.ys[r] * cols + runs.tos[r]);
+        return cells;
+    }
+
+    /**
+     * @return the available cells as points, in row-major order, the id of
+     * each being its vertex in toCellGraph
+     */
+    public PointSet toPointSet()
+    {
+        final int n = (int)runs.cells;
+        int[] ids = new int[n], xs = new int[n], ys = new int[n];
+        int i = 0;
+        for (int r = 0; r < runs.size; ++r)
+            for (int x = runs.froms[r]; x < runs.tos[r]; ++x)
+            {
+                ids[i] = i;
+                xs[i] = x;
+                ys[i] = runs.ys[r];
+                ++i;
+            }
+        return PointSet.wrap(ids, xs, ys);
+    }
+
+    /**
+     * @param pool the pool to build on, or null
+     * @return the graph of the available cells (see CellGraph.csr)
+     */
+    public CellGraph toCellGraph(ForkJoinPool pool)
+    {
+        return CellGraph.csr(rows, cols, toBitSet(), pool);
+    }
+
+    /**
+     * @return the line that bisects the available cells (the same as
+     * InertialPartitioner.getLine(toPointSet()))
+     * @throws Exception
+     */
+    public Line getLine() throws Exception
+    {
+        return runs.getLine();
+    }
+
+    /**
+     * Partitions the available cells with k lines, the way
+     * InertialPartitioner.getLines(toPointSet(), k) does (giving the same
+     * lines, see the class comment)
+     *
+     * @param k
+     * @return the k lines
+     * @throws Exception
+     */
+    public List<Line> getLines(int k) throws Exception
+    {
+        if (k < 1) throw new Exception("k must be >= 1");
+        if (runs.cells > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many cells to number: " + runs.cells);
+
+        //Regions are numbered like the ranges of the partitioned point set:
+        //the left side of a region first
+        ArrayList<Line> lines = new ArrayList<Line>();
+        SplitScheduler<Runs> subRegions = new SplitScheduler<Runs>(null, SplitPolicy.COUNT);
+        Line line = runs.getLine();
+        lines.add(line);
+        add(subRegions, runs, line, 0);
+        k--;
+
+        for (int i = 0; i < k; ++i)
+        {
+            int from = subRegions.getFrom(subRegions.peek());
+            Runs next = subRegions.poll();
+            line = next.getLine();
+            lines.add(line);
+            add(subRegions, next, line, from);
+        }
+        return lines;
+    }
+
+    /**
+     * Splits region (starting at from) by the line and schedules both sides
+     */
+    private static void add(SplitScheduler<Runs> subRegions, Runs region, Line line, int from)
+    {
+        Runs left = new Runs(region.size);
+        Runs right = new Runs(region.size);
+        region.split(line, left, right);
+        subRegions.add(left, from, from + (int)left.cells);
+        subRegions.add(right, from + (int)left.cells, from + (int)(left.cells + right.cells));
+    }
+
+    /**
+     * Runs of cells: run r is the cells [froms[r], tos[r]) of row ys[r]
+     */
+    private static final class Runs
+    {
+        int[] ys;
+        int[] froms;
+        int[] tos;
+        int size;
+        long cells;
+
+        Runs(int capacity)
+        {
+            capacity = Math.max(capacity, 1);
+            ys = new int[capacity];
+            froms = new int[capacity];
+            tos = new int[capacity];
+        }
+
+        void add(int y, int from, int to)
+        {
+            if (from >= to)
+                return;
+            if (size == ys.length)
+            {
+                ys = Arrays.copyOf(ys, 2 * size);
+                froms = Arrays.copyOf(froms, 2 * size);
+                tos = Arrays.copyOf(tos, 2 * size);
+            }
+            ys[size] = y;
+            froms[size] = from;
+            tos[size] = to;
+            ++size;
+            cells += to - from;
+        }
+
+        /**
+         * @return the moments of the cells, around the first cell (as
+         * Moments.of takes the first point)
+         */
+        Moments getMoments()
+        {
+            final int x0 = (size > 0 ? froms[0] : 0);
+            final int y0 = (size > 0 ? ys[0] : 0);
+            Moments moments = new Moments(x0, y0);
+
+            //Every sum is exact in a long while they all stay below 2^53
+            double m = 0;
+            for (int r = 0; r < size; ++r)
+                m = Math.max(m, Math.max(Math.max(Math.abs((double)froms[r] - x0), Math.abs((double)tos[r] - 1 - x0)),
+                                         Math.abs((double)ys[r] - y0)));
+            boolean exact = (m * m * cells < EXACT);
+
+            double[] sums = new double[5];
+            for (int r = 0; r < size; ++r)
+            {
+                long length = tos[r] - froms[r];
+                long p = froms[r] - x0;   //dx of the first cell
+                long dy = ys[r] - y0;
+                if (exact)
+                {
+                    //Sigma(p + j) and Sigma((p + j)^2), j in [0, length)
+                    long sx = length * p + length * (length - 1) / 2;
+                    long sxx = length * p * p + p * length * (length - 1) + (length - 1) * length * (2 * length - 1) / 6;
+                    sums[0] = sx;
+                    sums[1] = length * dy;
+                    sums[2] = sxx;
+                    sums[3] = sx * dy;
+                    sums[4] = length * dy * dy;
+                }
+                else
+                {
+                    double l = length;
+                    double sx = l * p + l * (l - 1) / 2;
+                    sums[0] = sx;
+                    sums[1] = l * dy;
+                    sums[2] = l * p * p + p * l * (l - 1) + (l - 1) * l * (2 * l - 1) / 6;
+                    sums[3] = sx * dy;
+                    sums[4] = l * dy * dy;
+                }
+                moments.addSums((int)length, sums);
+            }
+            return moments;
+        }
+
+        Line getLine() throws Exception
+        {
+            if (cells == 0)
+                throw new IllegalArgumentException("Cannot find the median of an empty range");
+
+            Moments moments = getMoments();
+            double xbar = moments.getXbar();
+            double ybar = moments.getYbar();
+            double[] axis = InertialPartitioner.getAxis(moments.getX1(), moments.getX2(), moments.getX3());
+            double a = axis[0];
+            double b = axis[1];
+
+            //The median of the sj, as MedianFinder.median takes it
+            double upper = select(a, b, xbar, ybar, cells / 2);
+            double sbar = upper;
+            if (cells % 2 == 0)
+            {
+                //The lower middle is upper too, unless fewer than cells / 2
+                //cells are below upper
+                double lower = upper;
+                if (countBelow(upper, a, b, xbar, ybar) >= cells / 2)
+                    lower = getLargestBelow(upper, a, b, xbar, ybar);
+                sbar = (upper + lower) / 2;
+            }
+            return new Line(a, b, xbar, ybar, sbar);
+        }
+
+        /**
+         * @return sj of the i-th cell of run r in increasing order of sj
+         */
+        private double getSj(int r, long i, double a, double b, double xbar, double ybar)
+        {
+            //sj decreases along x when b > 0
+            long x = (b > 0 ? tos[r] - 1 - i : froms[r] + i);
+            return a * (ys[r] - ybar) - b * (x - xbar);
+        }
+
+        /**
+         * @return the number of cells of run r in [lo, hi) (in increasing
+         * order of sj) whose sj is < value, or <= value if inclusive
+         */
+        private long count(int r, long lo, long hi, double value, boolean inclusive,
+                           double a, double b, double xbar, double ybar)
+        {
+            long from = lo;
+            while (lo < hi)
+            {
+                long mid = (lo + hi) >>> 1;
+                double sj = getSj(r, mid, a, b, xbar, ybar);
+                if (sj < value || (inclusive && sj == value))
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo - from;
+        }
+
+        /**
+         * @return the k-th smallest sj (0-based) over all cells
+         */
+        double select(double a, double b, double xbar, double ybar, long k)
+        {
+            //The cells [lo[r], hi[r]) of each active run, in increasing order
+            //of sj, may hold it
+            int[] active = new int[size];
+            long[] lo = new long[size];
+            long[] hi = new long[size];
+            int count = 0;
+            for (int r = 0; r < size; ++r)
+            {
+                active[count] = r;
+                hi[count] = tos[r] - froms[r];
+                ++count;
+            }
+            long[] less = new long[size];
+            long[] lessOrEqual = new long[size];
+            double[] middles = new double[size];
+            double[] weights = new double[size];
+
+            while (true)
+            {
+                long remaining = 0;
+                for (int i = 0; i < count; ++i)
+                    remaining += hi[i] - lo[i];
+
+                if (remaining <= (long)SORT_THRESHOLD * count)
+                {
+                    double[] values = new double[(int)remaining];
+                    int v = 0;
+                    for (int i = 0; i < count; ++i)
+                        for (long j = lo[i]; j < hi[i]; ++j)
+                            values[v++] = getSj(active[i], j, a, b, xbar, ybar);
+                    return MedianFinder.select(values, 0, values.length, (int)k);
+                }
+
+                //Pivot: the median of the middles of the runs, weighted by
+                //their remaining cells, so about a quarter of the cells are on
+                //either side of it
+                for (int i = 0; i < count; ++i)
+                {
+                    middles[i] = getSj(active[i], (lo[i] + hi[i]) >>> 1, a, b, xbar, ybar);
+                    weights[i] = hi[i] - lo[i];
+                }
+                double pivot = MedianFinder.weightedMedian(middles, weights, 0, count);
+
+                long totalLess = 0;
+                long totalLessOrEqual = 0;
+                for (int i = 0; i < count; ++i)
+                {
+                    int r = active[i];
+                    less[i] = count(r, lo[i], hi[i], pivot, false, a, b, xbar, ybar);
+                    lessOrEqual[i] = less[i] + count(r, lo[i] + less[i], hi[i], pivot, true, a, b, xbar, ybar);
+                    totalLess += less[i];
+                    totalLessOrEqual += lessOrEqual[i];
+                }
+
+                if (k >= totalLess && k < totalLessOrEqual)
+                    return pivot;
+                boolean below = (k < totalLess);
+                if (!below)
+                    k -= totalLessOrEqual;
+
+                //Keep the side holding it, and the runs with cells left there
+                int kept = 0;
+                for (int i = 0; i < count; ++i)
+                {
+                    long from = (below ? lo[i] : lo[i] + lessOrEqual[i]);
+                    long to = (below ? lo[i] + less[i] : hi[i]);
+                    if (from < to)
+                    {
+                        active[kept] = active[i];
+                        lo[kept] = from;
+                        hi[kept] = to;
+                        ++kept;
+                    }
+                }
+                count = kept;
+            }
+        }
+
+        /**
+         * @return the number of cells whose sj is < value
+         */
+        long countBelow(double value, double a, double b, double xbar, double ybar)
+        {
+            long below = 0;
+            for (int r = 0; r < size; ++r)
+                below += count(r, 0, tos[r] - froms[r], value, false, a, b, xbar, ybar);
+            return below;
+        }
+
+        /**
+         * @return the largest sj < value over all cells
+         */
+        double getLargestBelow(double value, double a, double b, double xbar, double ybar)
+        {
+            double largest = Double.NEGATIVE_INFINITY;
+            for (int r = 0; r < size; ++r)
+            {
+                long c = count(r, 0, tos[r] - froms[r], value, false, a, b, xbar, ybar);
+                if (c > 0)
+                    largest = Math.max(largest, getSj(r, c - 1, a, b, xbar, ybar));
+            }
+            return largest;
+        }
+
+        /**
+         * Adds the cells on the left side of the line (sj < sbar) to left,
+         * the others to right
+         */
+        void split(Line line, Runs left, Runs right)
+        {
+            double a = line.getA(), b = line.getB(), xbar = line.getXbar(), ybar = line.getYbar();
+            for (int r = 0; r < size; ++r)
+            {
+                long n = tos[r] - froms[r];
+                int c = (int)count(r, 0, n, line.getSbar(), false, a, b, xbar, ybar);
+                if (b > 0)
+                {
+                    //The c cells with the smallest sj are the last ones
+                    right.add(ys[r], froms[r], tos[r] - c);
+                    left.add(ys[r], tos[r] - c, tos[r]);
+                }
+                else
+                {
+                    left.add(ys[r], froms[r], froms[r] + c);
+                    right.add(ys[r], froms[r] + c, tos[r]);
+                }
+            }
+        }
+    }
+}
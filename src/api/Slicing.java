@@ -0,0 +1,161 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A k-way split of a point set by k - 1 parallel lines, all perpendicular
+ * to the same inertial axis (see InertialPartitioner.getSlices).
+ *
+ * Region r holds the points whose sj (along the common line) lies in
+ * [cut(r - 1), cut(r)), region 0 being below the first cut and region
+ * k - 1 at or above the last one. Line c (sbar = cut(c)) divides the
+ * points of regions c, c + 1, ...: region c is on its left side, the
+ * others on its right side.
+ *
+ * Regions are numbered in the order they appear in the point set (region
+ * r is [getRegionFrom(r), getRegionTo(r)) of the partitioned set);
+ * getLabel(i) is the region of the i-th point in the order the points had
+ * before they were partitioned.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public class Slicing
+{
+    private final double a;
+    private final double b;
+    private final double xbar;
+    private final double ybar;
+    private final double[] cuts;
+    private final List<Line> lines;
+    private final int[] bounds;   //region r is [bounds[r], bounds[r + 1])
+    private final int[] labels;
+
+    Slicing(double a, double b, double xbar, double ybar,
+            double[] cuts, List<Line> lines, int[] bounds, int[] labels)
+    {
+        this.a = a;
+        this.b = b;
+        this.xbar = xbar;
+        this.ybar = ybar;
+        this.cuts = cuts;
+        this.lines = Collections.unmodifiableList(lines);
+        this.bounds = bounds;
+        this.labels = labels;
+    }
+
+    /**
+     * @param cuts in non-decreasing order
+     * @param sj
+     * @return the number of cuts <= sj, i.e. the region of a point at sj
+     */
+    static int region(double[] cuts, double sj)
+    {
+        int lo = 0;
+        int hi = cuts.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (cuts[mid] <= sj)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the id of the region containing the point (x, y), in
+     * O(log k)
+     */
+    public int locate(double x, double y)
+    {
+        return region(cuts, Line.getSj(x, y, a, b, xbar, ybar));
+    }
+
+    /**
+     * @param node
+     * @return the id of the region containing the given node
+     */
+    public int locate(Node node)
+    {
+        return locate(node.getX(), node.getY());
+    }
+
+    /**
+     * @return the k - 1 cut lines, line c dividing region c from the
+     * regions after it
+     */
+    public List<Line> getLines()
+    {
+        return lines;
+    }
+
+    /**
+     * @return k, the number of regions
+     */
+    public int getRegionCount()
+    {
+        return bounds.length - 1;
+    }
+
+    /**
+     * @param r region id
+     * @return the index of the first point of region r in the partitioned set
+     */
+    public int getRegionFrom(int r)
+    {
+        return bounds[r];
+    }
+
+    /**
+     * @param r region id
+     * @return the index after the last point of region r in the partitioned set
+     */
+    public int getRegionTo(int r)
+    {
+        return bounds[r + 1];
+    }
+
+    /**
+     * @param i index of a point in the order the points had before they
+     * were partitioned (the iteration order of the nodes, if built from
+     * nodes)
+     * @return the region of that point
+     */
+    public int getLabel(int i)
+    {
+        return labels[i];
+    }
+
+    /**
+     * @return the number of labelled points
+     */
+    public int size()
+    {
+        return labels.length;
+    }
+}
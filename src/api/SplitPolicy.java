@@ -0,0 +1,112 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+
+package api;
+
+/**
+ * Decides which region getLines splits next: the region with the highest
+ * priority (see SplitScheduler). Among regions of the same priority, the
+ * one that comes first in the point set is split first.
+ *
+ * The priority of a region is computed once, when the region is created.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+public interface SplitPolicy
+{
+    /**
+     * @param points
+     * @param from first index of the region (inclusive)
+     * @param to last index of the region (exclusive)
+     * @return the priority of the region [from, to); higher is split first
+     */
+    double getPriority(PointSet points, int from, int to);
+
+    /**
+     * The region with the most points
+     */
+    SplitPolicy COUNT = new SplitPolicy()
+    {
+        @Override
+        public double getPriority(PointSet points, int from, int to)
+        {
+            return to - from;
+        }
+    };
+
+    /**
+     * The region with the largest total weight (the most points if the 
+     * points carry no weights); the default
+     */
+    SplitPolicy WEIGHT = new SplitPolicy()
+    {
+        @Override
+        public double getPriority(PointSet points, int from, int to)
+        {
+            return points.getWeight(from, to);
+        }
+    };
+
+    /**
+     * The region with the longest bounding box side
+     */
+    SplitPolicy EXTENT = new SplitPolicy()
+    {
+        @Override
+        public double getPriority(PointSet points, int from, int to)
+        {
+            if (to <= from)
+                return 0;
+
+            int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+            int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = from; i < to; ++i)
+            {
+                int x = points.getX(i);
+                int y = points.getY(i);
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+            return Math.max((double)maxX - minX, (double)maxY - minY);
+        }
+    };
+
+    /**
+     * The region with the largest estimated cost: its moment of inertia 
+     * x1 + x3 = Sigma(w * |p - centroid|^2), which grows both with the 
+     * load of the region and with how far that load is spread
+     */
+    SplitPolicy COST = new SplitPolicy()
+    {
+        @Override
+        public double getPriority(PointSet points, int from, int to)
+        {
+            if (to <= from)
+                return 0;
+
+            Moments moments = Moments.of(points, from, to);
+            return moments.getX1() + moments.getX3();
+        }
+    };
+}
@@ -0,0 +1,229 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.Arrays;
+
+/**
+ * The regions waiting to be split by getLines, ordered by a SplitPolicy:
+ * an indexed binary max-heap of regions [from, to) of one point set.
+ *
+ * Every region added gets a handle (0, 1, 2, ... in order of addition)
+ * that stays valid until the region is removed; the heap keeps the
+ * position of each handle, so a region can be removed or given a new
+ * priority in O(log k), like the region at the top is polled.
+ * Ties are broken by position in the point set (the region that comes
+ * first is split first), so the order never depends on the heap layout.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class SplitScheduler<T>
+{
+    private final PointSet points;
+    private final SplitPolicy policy;
+
+    //Per handle
+    private Object[] regions = new Object[8];
+    private int[] froms = new int[8];
+    private int[] tos = new int[8];
+    private double[] priorities = new double[8];
+    private int[] positions = new int[8]; //index in heap, -1 once removed
+    private int handles = 0;
+
+    //The heap of handles
+    private int[] heap = new int[8];
+    private int size = 0;
+
+    SplitScheduler(PointSet points, SplitPolicy policy)
+    {
+        this.points = points;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds the region [from, to), with the priority given by the policy
+     *
+     * @param region the object returned by poll for this region
+     * @param from
+     * @param to
+     * @return the handle of the region
+     */
+    int add(T region, int from, int to)
+    {
+        if (handles == froms.length)
+        {
+            int capacity = 2 * handles;
+            regions = Arrays.copyOf(regions, capacity);
+            froms = Arrays.copyOf(froms, capacity);
+            tos = Arrays.copyOf(tos, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+        }
+
+        int h = handles++;
+        regions[h] = region;
+        froms[h] = from;
+        tos[h] = to;
+        priorities[h] = policy.getPriority(points, from, to);
+        heap[size] = h;
+        positions[h] = size;
+        siftUp(size++);
+        return h;
+    }
+
+    /**
+     * @return the number of regions waiting
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the handle of the region to split next, -1 if there is none
+     */
+    int peek()
+    {
+        return (size == 0 ? -1 : heap[0]);
+    }
+
+    /**
+     * Removes the region to split next
+     *
+     * @return the region, null if there is none
+     */
+    T poll()
+    {
+        if (size == 0)
+            return null;
+        return remove(heap[0]);
+    }
+
+    /**
+     * Removes the region with the given handle
+     *
+     * @param h
+     * @return the region
+     */
+    @SuppressWarnings("unchecked")
+    T remove(int h)
+    {
+        int i = positions[h];
+        if (i < 0)
+            throw new IllegalArgumentException("Region " + h + " was removed");
+
+        int last = heap[--size];
+        positions[h] = -1;
+        if (i < size)
+        {
+            heap[i] = last;
+            positions[last] = i;
+            siftUp(i);
+            siftDown(positions[last]);
+        }
+
+        T region = (T)regions[h];
+        regions[h] = null;
+        return region;
+    }
+
+    /**
+     * Gives the region with the given handle a new priority
+     *
+     * @param h
+     * @param priority
+     */
+    void setPriority(int h, double priority)
+    {
+        int i = positions[h];
+        if (i < 0)
+            throw new IllegalArgumentException("Region " + h + " was removed");
+
+        priorities[h] = priority;
+        siftUp(i);
+        siftDown(positions[h]);
+    }
+
+    double getPriority(int h)
+    {
+        return priorities[h];
+    }
+
+    int getFrom(int h)
+    {
+        return froms[h];
+    }
+
+    int getTo(int h)
+    {
+        return tos[h];
+    }
+
+    /**
+     * @return true if the region with handle h1 is to be split before h2
+     */
+    private boolean before(int h1, int h2)
+    {
+        if (priorities[h1] != priorities[h2])
+            return priorities[h1] > priorities[h2];
+        if (froms[h1] != froms[h2])
+            return froms[h1] < froms[h2];
+        return h1 < h2; //an empty region and its neighbour
+    }
+
+    private void siftUp(int i)
+    {
+        int h = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (!before(h, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            positions[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = h;
+        positions[h] = i;
+    }
+
+    private void siftDown(int i)
+    {
+        int h = heap[i];
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && before(heap[child + 1], heap[child]))
+                ++child;
+            if (!before(heap[child], h))
+                break;
+            heap[i] = heap[child];
+            positions[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = h;
+        positions[h] = i;
+    }
+}
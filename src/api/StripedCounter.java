@@ -0,0 +1,59 @@
+/**
+ * Inertial Partitioning
+ * Copyright (C) 2013  Vy Thuy Nguyen
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+
+package api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for many threads: each thread adds to one of several cells
+ * (picked by thread id, each on its own cache line), and the value is the
+ * sum of the cells. Adding never blocks and rarely contends.
+ *
+ * @author              Vy Thuy Nguyen
+ */
+final class StripedCounter
+{
+    private static final int STRIPES = 16;  //a power of two
+    private static final int PADDING = 8;   //longs per 64-byte cache line
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void add(long value)
+    {
+        int stripe = (int)(Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, value);
+    }
+
+    long sum()
+    {
+        long sum = 0;
+        for (int s = 0; s < STRIPES; ++s)
+            sum += cells.get(s * PADDING);
+        return sum;
+    }
+
+    void reset()
+    {
+        for (int s = 0; s < STRIPES; ++s)
+            cells.set(s * PADDING, 0);
+    }
+}
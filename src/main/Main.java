@@ -20,6 +20,7 @@
 
 package main;
 
+import api.CellGraph;
 import api.InertialPartitioner;
 import api.Line;
 import api.Node;
@@ -28,8 +29,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.TreeSet;
-import org.jgrapht.graph.DefaultWeightedEdge;
-import org.jgrapht.graph.SimpleWeightedGraph;
 
 /**
  * @author              Vy Thuy Nguyen
@@ -43,8 +42,8 @@ public class Main
     
     public static void main(String[] args) throws Exception
     {
-//        SimpleWeightedGraph<Node, DefaultWeightedEdge> g = genGraph();
-//        Line line = InertialPartitioner.getLine(g.vertexSet());
+//        CellGraph g = genGraph();
+//        Line line = InertialPartitioner.getLine(g.toPointSet());
 //        
 //        System.out.printf("a = %f, b = %f, xbar = %f, ybar = %f\n", 
 //                          line.getA(),
@@ -94,129 +93,14 @@ public class Main
     }
     
     /**
-     * Generates a graph whose nodes are cells in a 10x15 matrix.
+     * Generates a graph whose nodes are cells in a ROW_COUNT x COL_COUNT
+     * matrix, each linked to its 8 (or less) neighbors.
      * All nodes are available.
      * 
-     * @return a simple weighted graph 
+     * @return a graph in compressed sparse rows
      */
-    public static SimpleWeightedGraph<Node, DefaultWeightedEdge> genGraph()
+    public static CellGraph genGraph()
     {
-        Node[][] nodeContainer = new Node[ROW_COUNT][COL_COUNT];
-        SimpleWeightedGraph<Node, DefaultWeightedEdge> g = 
-                new SimpleWeightedGraph<Node, DefaultWeightedEdge>(DefaultWeightedEdge.class);
-        generateVertices(nodeContainer, g);
-        generateEdges(nodeContainer, g);
-        return g;
-    }
-    
-    /**
-     * 
-     */
-    private static void generateVertices(Node[][] nodeContainer, 
-                                         SimpleWeightedGraph<Node, DefaultWeightedEdge> g)
-    {
-        int id = 0;
-        
-        for (int row = 0; row < ROW_COUNT; ++row)
-            for (int col = 0; col < COL_COUNT; ++col)
-            {
-                nodeContainer[row][col] = new Node(id, col, row);
-                g.addVertex(nodeContainer[row][col]);
-                ++id;
-            }
-    }
-    
-    private static void generateEdges(Node[][] nodeContainer, 
-                                      SimpleWeightedGraph<Node, DefaultWeightedEdge> g)
-    {
-        for (int row = 0; row < ROW_COUNT; ++row)
-            for (int col = 0; col < COL_COUNT; ++col)
-            {
-                addEdges(nodeContainer, g, row, col);
-            }
-    }
-    
-    /**
-     * Add edges connecting this cell and its 8 (or less) neighbors
-     * 
-     * @param row
-     * @param col 
-     */
-    private static void addEdges(Node[][] nodeContainer,
-                                 SimpleWeightedGraph<Node, DefaultWeightedEdge> g,
-                                 int row, int col)
-    {
-        //Add weighted edge
-        //North
-        if (row > 0)
-        {
-            g.addEdge(nodeContainer[row][col], nodeContainer[row - 1][col]);
-            g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                      nodeContainer[row - 1][col]),
-                            1);
-            //NE
-            if (col < COL_COUNT - 2)
-            {
-                g.addEdge(nodeContainer[row][col], nodeContainer[row - 1][col + 1]);
-                g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                          nodeContainer[row - 1][col + 1]),
-                                Math.sqrt(2.0));
-            }
-        }
-
-        //East
-        if (col < COL_COUNT - 2)
-        {
-            g.addEdge(nodeContainer[row][col], nodeContainer[row][col + 1]);
-            g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                      nodeContainer[row][col + 1]),
-                            1);
-
-
-            //SE
-            if (row < ROW_COUNT - 2)
-            {
-                g.addEdge(nodeContainer[row][col], nodeContainer[row + 1][col + 1]);
-                g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                          nodeContainer[row + 1][col + 1]),
-                                Math.sqrt(2.0));
-
-            }
-        }
-
-        //South
-        if (row < ROW_COUNT - 2)
-        {
-            g.addEdge(nodeContainer[row][col], nodeContainer[row + 1][col]);
-            g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                      nodeContainer[row + 1][col]),
-                            1);
-
-            //SW
-            if (col > 0)
-            {
-                g.addEdge(nodeContainer[row][col], nodeContainer[row + 1][col - 1]);
-                g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                          nodeContainer[row + 1][col - 1]),
-                                Math.sqrt(2.0));
-            }
-        }
-
-        //West
-        if (col > 0)
-        {
-            g.addEdge(nodeContainer[row][col], nodeContainer[row][col - 1]);
-            g.setEdgeWeight(g.getEdge(nodeContainer[row][col], nodeContainer[row][col - 1]),
-                            1);
-
-            //NW
-            if (row > 0)
-            {
-                g.addEdge(nodeContainer[row][col], nodeContainer[row - 1][col - 1]);
-                g.setEdgeWeight(g.getEdge(nodeContainer[row][col],
-                                          nodeContainer[row - 1][col - 1]),
-                                Math.sqrt(2.0));
-            }
-        }
+        return CellGraph.csr(ROW_COUNT, COL_COUNT);
     }
 }
@@ -7,12 +7,17 @@ package api;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
 import main.Main;
-import org.jgrapht.Graph;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.*;
 
@@ -183,4 +188,1497 @@ public class InertialPartitionerTest
         List<Line> expected = null;
         doTestGetLines(nodes, k, expected, "testWithFloorPlan");
     }
+    
+    /**
+     * sbar is now found by selection over a double[]; it must be exactly the
+     * value the previous sorted LinkedList implementation produced, on the 
+     * floor plan and on both of its halves.
+     */
+    @Test
+    public void testSbarMatchesLinkedListMedian() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        
+        Line line = InertialPartitioner.getLine(nodes);
+        assertEquals(getLinkedListSbar(nodes, line), line.getSbar(), 0);
+        
+        Line left = InertialPartitioner.getLine(line.getLeftNodes());
+        assertEquals(getLinkedListSbar(line.getLeftNodes(), left), left.getSbar(), 0);
+        
+        Line right = InertialPartitioner.getLine(line.getRightNodes());
+        assertEquals(getLinkedListSbar(line.getRightNodes(), right), right.getSbar(), 0);
+    }
+    
+    @Test
+    public void testMedianFinder()
+    {
+        Random rand = new Random(1374);
+        for (int size = 1; size < 300; ++size)
+        {
+            double[] values = new double[size];
+            for (int i = 0; i < size; ++i)
+                values[i] = rand.nextInt(size / 3 + 1); //plenty of duplicates
+            
+            double[] sorted = values.clone();
+            java.util.Arrays.sort(sorted);
+            double expected = (size % 2 == 0 
+                               ? (sorted[size / 2] + sorted[size / 2 - 1]) / 2
+                               : sorted[size / 2]);
+            
+            assertEquals(expected, MedianFinder.median(values, 0, size), 0);
+        }
+    }
+    
+    @Test
+    public void testGetLineWithPointSet() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        PointSet points = PointSet.fromNodes(nodes);
+        
+        Line expected = InertialPartitioner.getLine(nodes);
+        assertEquals(expected, InertialPartitioner.getLine(points));
+        
+        //Splitting in place: the left side is exactly expected.getLeftNodes()
+        int split = points.partition(expected, 0, points.size());
+        assertEquals(expected.getLeftNodes().size(), split);
+        assertEquals(expected.getRightNodes().size(), points.size() - split);
+        assertEquals(InertialPartitioner.getLine(expected.getLeftNodes()),
+                     InertialPartitioner.getLine(points, 0, split));
+        assertEquals(InertialPartitioner.getLine(expected.getRightNodes()),
+                     InertialPartitioner.getLine(points, split, points.size()));
+        
+        //Adapter back to nodes keeps ids and coordinates
+        List<Node> back = points.toNodes();
+        for (int i = 0; i < back.size(); ++i)
+        {
+            assertEquals(points.getId(i), back.get(i).getId());
+            assertEquals(points.getX(i), back.get(i).getX());
+            assertEquals(points.getY(i), back.get(i).getY());
+        }
+    }
+    
+    /**
+     * Each side of a line is a slice [from, split) / [split, to) of one 
+     * array, holding the caller's own Node objects.
+     */
+    @Test
+    public void testLineSplitsInPlace() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        Line line = InertialPartitioner.getLine(nodes);
+        
+        assertEquals(0, line.getFrom());
+        assertEquals(nodes.size(), line.getTo());
+        assertEquals(line.getSplit(), line.getLeftNodes().size());
+        assertEquals(nodes.size() - line.getSplit(), line.getRightNodes().size());
+        
+        java.util.Set<Node> seen = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Node, Boolean>());
+        for (Node node : line.getLeftNodes())
+        {
+            assertEquals(SideMembership.LEFT, line.getSideMembership(node));
+            seen.add(node);
+        }
+        for (Node node : line.getRightNodes())
+        {
+            assertEquals(SideMembership.RIGHT, line.getSideMembership(node));
+            seen.add(node);
+        }
+        for (Node node : nodes)
+            assertTrue(seen.contains(node));
+    }
+    
+    /**
+     * With k + 1 a power of two, the parallel recursive bisection finds the 
+     * same lines, in the same order, as the sequential largest-first one.
+     */
+    @Test
+    public void testGetLinesParallel() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        
+        for (int k : new int[] {1, 3, 7, 15})
+        {
+            List<Line> expected = InertialPartitioner.getLines(PointSet.fromNodes(nodes), k);
+            List<Line> actual = InertialPartitioner.getLinesParallel(PointSet.fromNodes(nodes), k, pool, 1);
+            assertEquals(expected, actual);
+        }
+        
+        assertEquals(5, InertialPartitioner.getLinesParallel(nodes, 5, pool).size());
+        
+        //Grids: points tie at sbar, so the halves of a region may differ in
+        //size (on a 9 x 9 grid, the first line leaves 36 points on its left)
+        for (int g = 2; g <= 40; ++g)
+        {
+            int[] xs = new int[g * g], ys = new int[g * g];
+            for (int i = 0; i < g * g; ++i)
+            {
+                xs[i] = i % g;
+                ys[i] = i / g;
+            }
+            for (int k : new int[] {3, 5, 7, 15})
+            {
+                List<Line> expected = InertialPartitioner.getLines(PointSet.wrap(new int[g * g], xs.clone(), ys.clone()), k);
+                List<Line> actual = InertialPartitioner.getLinesParallel(PointSet.wrap(new int[g * g], xs.clone(), ys.clone()), k, pool, 1);
+                assertEquals(expected, actual);
+            }
+        }
+        pool.shutdown();
+    }
+    
+    /**
+     * One-pass compensated moments agree with the two-pass sums, and the 
+     * parallel accumulation gives exactly the sequential result.
+     */
+    @Test
+    public void testMoments()
+    {
+        Random rand = new Random(1374);
+        final int N = 300000;
+        int[] ids = new int[N], xs = new int[N], ys = new int[N];
+        for (int i = 0; i < N; ++i)
+        {
+            ids[i] = i;
+            xs[i] = 1000000 + rand.nextInt(5000);
+            ys[i] = 2 * xs[i] + rand.nextInt(100);
+        }
+        PointSet points = PointSet.wrap(ids, xs, ys);
+        
+        double xbar = 0, ybar = 0;
+        for (int i = 0; i < N; ++i)
+        {
+            xbar += xs[i];
+            ybar += ys[i];
+        }
+        xbar /= N;
+        ybar /= N;
+        double x1 = 0, x2 = 0, x3 = 0;
+        for (int i = 0; i < N; ++i)
+        {
+            x1 += (xs[i] - xbar) * (xs[i] - xbar);
+            x2 += (xs[i] - xbar) * (ys[i] - ybar);
+            x3 += (ys[i] - ybar) * (ys[i] - ybar);
+        }
+        
+        Moments moments = Moments.of(points, 0, N);
+        assertEquals(N, moments.getCount());
+        assertEquals(xbar, moments.getXbar(), 0);
+        assertEquals(ybar, moments.getYbar(), 0);
+        assertEquals(x1, moments.getX1(), 1e-9 * x1);
+        assertEquals(x2, moments.getX2(), 1e-9 * x2);
+        assertEquals(x3, moments.getX3(), 1e-9 * x3);
+        
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        Moments parallel = Moments.of(points, 0, N, pool);
+        pool.shutdown();
+        assertEquals(moments.getX1(), parallel.getX1(), 0);
+        assertEquals(moments.getX2(), parallel.getX2(), 0);
+        assertEquals(moments.getX3(), parallel.getX3(), 0);
+        assertEquals(moments.getSumXY(), parallel.getSumXY(), 0);
+    }
+    
+    @Test
+    public void testPartitionListener() throws Exception
+    {
+        final List<Line> seen = new ArrayList<Line>();
+        final int[] sizes = new int[1];
+        InertialPartitioner.setListener(new PartitionListener() {
+            @Override
+            public void bisected(int from, int to, Moments moments, double lambda, Line line, long elapsedNanos)
+            {
+                assertEquals(to - from, moments.getCount());
+                assertEquals(line.getXbar(), moments.getXbar(), 0);
+                assertTrue(elapsedNanos >= 0);
+                sizes[0] += to - from;
+                seen.add(line);
+            }
+        });
+        
+        try
+        {
+            List<Node> nodes = readFloorPlan();
+            List<Line> lines = InertialPartitioner.getLines(PointSet.fromNodes(nodes), 3);
+            assertEquals(lines, seen);
+            assertEquals(2 * nodes.size(), sizes[0]); //whole set, then both halves
+        }
+        finally
+        {
+            InertialPartitioner.setListener(null);
+        }
+    }
+    
+    /**
+     * locate(x, y) finds, for every point, the region whose range of the 
+     * partitioned set holds it.
+     */
+    @Test
+    public void testPartitionTreeLocate() throws Exception
+    {
+        PointSet points = PointSet.fromNodes(readFloorPlan());
+        int k = 6;
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, k);
+        
+        assertEquals(k, tree.getLines().size());
+        assertEquals(k + 1, tree.getRegionCount());
+        assertEquals(0, tree.getRegionFrom(0));
+        assertEquals(points.size(), tree.getRegionTo(k));
+        for (int r = 0; r < tree.getRegionCount(); ++r)
+        {
+            assertTrue(tree.getRegionFrom(r) < tree.getRegionTo(r));
+            for (int i = tree.getRegionFrom(r); i < tree.getRegionTo(r); ++i)
+                assertEquals(r, tree.locate(points.getX(i), points.getY(i)));
+        }
+        assertTrue(tree.getDepth() <= k);
+    }
+    
+    @Test
+    public void testFlatPartitionTree() throws Exception
+    {
+        PointSet points = PointSet.fromNodes(readFloorPlan());
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, 9);
+        FlatPartitionTree flat = tree.flatten();
+        assertEquals(9, flat.getLineCount());
+        assertEquals(10, flat.getRegionCount());
+        
+        Random rand = new Random(1374);
+        final int N = points.size() + 1000;
+        double[] xs = new double[N], ys = new double[N];
+        for (int i = 0; i < N; ++i)
+        {
+            xs[i] = (i < points.size() ? points.getX(i) : rand.nextDouble() * 60 - 5);
+            ys[i] = (i < points.size() ? points.getY(i) : rand.nextDouble() * 60 - 5);
+        }
+        
+        int[] regions = new int[N];
+        flat.classifyBatch(xs, ys, regions);
+        for (int i = 0; i < N; ++i)
+        {
+            assertEquals(tree.locate(xs[i], ys[i]), regions[i]);
+            assertEquals(regions[i], flat.classify(xs[i], ys[i]));
+        }
+    }
+    
+    @Test
+    public void testIncrementalPartitioner() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        IncrementalPartitioner partitioner = new IncrementalPartitioner(nodes, 7, 0.1);
+        assertEquals(8, partitioner.getRegionCount());
+        assertEquals(nodes.size(), partitioner.size());
+        
+        //Same partition as getPartitionTree to begin with
+        PartitionTree tree = InertialPartitioner.getPartitionTree(PointSet.fromNodes(nodes), 7);
+        for (Node node : nodes)
+            assertEquals(tree.locate(node), partitioner.locate(node.getX(), node.getY()));
+        
+        //Kill or delete the nodes of one corner, add some elsewhere
+        Random rand = new Random(2013);
+        List<Node> live = new ArrayList<Node>();
+        int nextId = nodes.size();
+        for (Node node : nodes)
+        {
+            if (node.getX() < 25 && node.getY() < 25)
+            {
+                if (rand.nextBoolean())
+                    partitioner.setIsDead(node, true);
+                else
+                    assertTrue(partitioner.delete(node));
+            }
+            else
+                live.add(node);
+        }
+        for (int i = 0; i < 300; ++i)
+        {
+            Node node = new Node(nextId++, 25 + rand.nextInt(25), 25 + rand.nextInt(25));
+            partitioner.insert(node);
+            live.add(node);
+        }
+        assertTrue(partitioner.getRebuildCount() > 0);
+        assertEquals(live.size(), partitioner.size());
+        
+        //Every live node is in the region locate gives it, once
+        int total = 0;
+        int max = 0;
+        int min = Integer.MAX_VALUE;
+        for (int r = 0; r < partitioner.getRegionCount(); ++r)
+        {
+            List<Node> region = partitioner.getRegion(r);
+            for (Node node : region)
+                assertEquals(r, partitioner.locate(node.getX(), node.getY()));
+            total += region.size();
+            max = Math.max(max, region.size());
+            min = Math.min(min, region.size());
+        }
+        assertEquals(live.size(), total);
+        assertTrue(max < 2 * min);
+        
+        //Bringing back the dead nodes
+        for (Node node : partitioner.getDeadNodes())
+        {
+            partitioner.setIsDead(node, false);
+            live.add(node);
+        }
+        assertEquals(0, partitioner.getDeadNodes().size());
+        assertEquals(live.size(), partitioner.size());
+        assertTrue(!partitioner.delete(new Node(-1, 0, 0)));
+    }
+    
+    @Test
+    public void testPointFile() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        File binary = File.createTempFile("floor_plan", ".pts");
+        binary.deleteOnExit();
+        assertEquals(nodes.size(), PointFile.convert(new File("floor_plan.png_1374_availCell.txt"), binary));
+        
+        PointFile file = PointFile.open(binary);
+        assertEquals(nodes.size(), file.getCount());
+        assertTrue(!file.hasIds() && !file.hasWeights());
+        int minX = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (Node node : nodes)
+        {
+            minX = Math.min(minX, node.getX());
+            maxY = Math.max(maxY, node.getY());
+        }
+        assertEquals(minX, file.getMinX());
+        assertEquals(maxY, file.getMaxY());
+        
+        //Same points, same lines as from the text file
+        PointSet points = file.map();
+        for (int i = 0; i < nodes.size(); ++i)
+        {
+            assertEquals(nodes.get(i).getId(), points.getId(i));
+            assertEquals(nodes.get(i).getX(), points.getX(i));
+            assertEquals(nodes.get(i).getY(), points.getY(i));
+        }
+        assertEquals(InertialPartitioner.getLines(PointSet.fromNodes(nodes), 5),
+                     InertialPartitioner.getLines(points, 5));
+        for (int i = 0; i < points.size(); ++i)
+        {
+            Node node = nodes.get(points.getId(i));
+            assertEquals(node.getX(), points.getX(i));
+            assertEquals(node.getY(), points.getY(i));
+        }
+        
+        //The file itself is left as it was
+        assertEquals(nodes.get(0).getX(), PointFile.map(binary).getX(0));
+        
+        //Ids and weights
+        int[] ids = {7, 3, 5};
+        float[] weights = {0.5f, 1, 2};
+        PointFile.write(binary, 3, new int[] {1, -2, 3}, new int[] {4, 5, -6}, ids, weights);
+        points = PointFile.map(binary);
+        assertTrue(points.hasWeights());
+        assertEquals(3, points.getId(1));
+        assertEquals(-2, points.getX(1));
+        assertEquals(-6, points.getY(2));
+        assertEquals(2, points.getWeight(2), 0);
+        assertEquals(-2, PointFile.open(binary).getMinX());
+        
+        File copy = File.createTempFile("copy", ".pts");
+        copy.deleteOnExit();
+        PointFile.write(points, copy);
+        assertTrue(PointFile.open(copy).hasIds());
+        assertEquals(0.5, PointFile.map(copy).getWeight(0), 0);
+        
+        //Mapped sets split in parallel as they do sequentially, even when
+        //the root split needs no swap (a grid stored column by column)
+        final int width = 600, height = 400;
+        int[] xs = new int[width * height], ys = new int[width * height];
+        for (int x = 0, i = 0; x < width; ++x)
+            for (int y = 0; y < height; ++y, ++i)
+            {
+                xs[i] = width - 1 - x;
+                ys[i] = y;
+            }
+        PointFile.write(binary, xs.length, xs, ys, null, null);
+        List<Line> expected = InertialPartitioner.getLines(PointFile.map(binary), 7);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        for (int run = 0; run < 10; ++run)
+            assertEquals(expected, InertialPartitioner.getLinesParallel(PointFile.map(binary), 7, pool, 1));
+        pool.shutdown();
+    }
+    
+    @Test
+    public void testExternalPartitioner() throws Exception
+    {
+        File dir = File.createTempFile("regions", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        
+        //A skewed grid of 90000 points: more than a median pass samples
+        final int N = 300 * 300;
+        int[] xs = new int[N], ys = new int[N];
+        for (int i = 0; i < N; ++i)
+        {
+            xs[i] = i % 300 + i / 900;
+            ys[i] = 2 * (i / 300);
+        }
+        File input = new File(dir, "grid.pts");
+        input.deleteOnExit();
+        PointFile.write(input, N, xs, ys, null, null);
+        
+        ExternalPartitioner partitioner = new ExternalPartitioner(dir, 10000);
+        List<Line> lines = partitioner.getLines(java.util.Arrays.asList(input), 9);
+        assertEquals(9, lines.size());
+        assertEquals(10, partitioner.getRegionCount());
+        
+        //The first line is getLine's
+        PointSet points = PointSet.wrap(new int[N], xs.clone(), ys.clone());
+        Line expected = InertialPartitioner.getLine(points);
+        assertEquals(expected, lines.get(0));
+        assertEquals(expected.getSbar(), lines.get(0).getSbar(), 0);
+        
+        //Every point is in exactly one region, with its coordinates
+        boolean[] seen = new boolean[N];
+        long total = 0;
+        for (int r = 0; r < partitioner.getRegionCount(); ++r)
+        {
+            long size = 0;
+            for (File file : partitioner.getRegionFiles(r))
+            {
+                file.deleteOnExit();
+                PointSet region = PointFile.map(file);
+                for (int i = 0; i < region.size(); ++i)
+                {
+                    int id = region.getId(i);
+                    assertTrue(!seen[id]);
+                    seen[id] = true;
+                    assertEquals(xs[id], region.getX(i));
+                    assertEquals(ys[id], region.getY(i));
+                }
+                size += region.size();
+            }
+            assertEquals(partitioner.getRegionSize(r), size);
+            assertTrue(size > 0);
+            total += size;
+        }
+        assertEquals(N, total);
+        
+        //Weights: the first line is the weighted getLine's, and the region
+        //files keep the weights
+        float[] weights = new float[N];
+        double[] doubles = new double[N];
+        for (int i = 0; i < N; ++i)
+            doubles[i] = weights[i] = (xs[i] < 100 ? 5 : 1);
+        PointFile.write(input, N, xs, ys, null, weights);
+        lines = partitioner.getLines(java.util.Arrays.asList(input), 9);
+        points = PointSet.wrap(new int[N], xs.clone(), ys.clone(), doubles.clone());
+        assertEquals(InertialPartitioner.getLine(points), lines.get(0));
+        double weight = 0;
+        for (int r = 0; r < partitioner.getRegionCount(); ++r)
+            for (File file : partitioner.getRegionFiles(r))
+            {
+                file.deleteOnExit();
+                PointSet region = PointFile.map(file);
+                assertTrue(region.hasWeights());
+                for (int i = 0; i < region.size(); ++i)
+                    assertEquals(weights[region.getId(i)], region.getWeight(i), 0);
+                weight += region.getWeight(0, region.size());
+            }
+        assertEquals(points.getWeight(0, N), weight, 0);
+        
+        //Small enough for memory: the weighted lines of getPartitionTree
+        ExternalPartitioner inMemory = new ExternalPartitioner(dir, N);
+        points = PointSet.wrap(new int[N], xs.clone(), ys.clone(), doubles.clone());
+        assertEquals(InertialPartitioner.getPartitionTree(points, 9).getLines(),
+                     inMemory.getLines(java.util.Arrays.asList(input), 9));
+        for (int r = 0; r < inMemory.getRegionCount(); ++r)
+            for (File file : inMemory.getRegionFiles(r))
+                file.deleteOnExit();
+        
+        //Two files without ids: the points of the second are numbered
+        //after those of the first, on disk and in memory alike
+        File first = new File(dir, "first.pts"), second = new File(dir, "second.pts");
+        first.deleteOnExit();
+        second.deleteOnExit();
+        final int half = N / 3;
+        PointFile.write(first, half, xs, ys, null, null);
+        PointFile.write(second, N - half, Arrays.copyOfRange(xs, half, N), Arrays.copyOfRange(ys, half, N), null, null);
+        for (ExternalPartitioner p : new ExternalPartitioner[] {partitioner, inMemory})
+        {
+            p.getLines(java.util.Arrays.asList(first, second), 9);
+            seen = new boolean[N];
+            for (int r = 0; r < p.getRegionCount(); ++r)
+                for (File file : p.getRegionFiles(r))
+                {
+                    file.deleteOnExit();
+                    PointSet region = PointFile.map(file);
+                    for (int i = 0; i < region.size(); ++i)
+                    {
+                        int id = region.getId(i);
+                        assertTrue(!seen[id]);
+                        seen[id] = true;
+                        assertEquals(xs[id], region.getX(i));
+                        assertEquals(ys[id], region.getY(i));
+                    }
+                }
+            for (int id = 0; id < N; ++id)
+                assertTrue(seen[id]);
+        }
+    }
+    
+    @Test
+    public void testQuantileSketch()
+    {
+        final int N = 1000000;
+        final double rankError = 0.005;
+        int k = QuantileSketch.getK(rankError);
+        
+        //One sketch, or one per chunk merged: both within the bound
+        QuantileSketch whole = new QuantileSketch(k, 1);
+        QuantileSketch merged = new QuantileSketch(k, 2);
+        QuantileSketch chunk = null;
+        for (int i = 0; i < N; ++i)
+        {
+            double value = (i * 7919L) % N; //0 .. N - 1, shuffled
+            whole.add(value);
+            if (i % 10000 == 0)
+            {
+                if (chunk != null)
+                    merged.merge(chunk);
+                chunk = new QuantileSketch(k, i + 1);
+            }
+            chunk.add(value);
+        }
+        merged.merge(chunk);
+        
+        assertEquals(N, merged.getCount());
+        assertTrue(whole.getSize() < 10 * k);
+        for (double q = 0.05; q < 1; q += 0.05)
+        {
+            assertEquals(q * N, whole.getQuantile(q), rankError * N);
+            assertEquals(q * N, merged.getQuantile(q), rankError * N);
+            assertEquals(q * N, merged.getRank(q * N), rankError * N);
+        }
+    }
+    
+    @Test
+    public void testGetApproximateLine() throws Exception
+    {
+        Random rand = new Random(1374);
+        final int N = 300000;
+        int[] xs = new int[N], ys = new int[N];
+        for (int i = 0; i < N; ++i)
+        {
+            xs[i] = rand.nextInt(100000);
+            ys[i] = rand.nextInt(30000) + xs[i] / 3;
+        }
+        
+        Line exact = InertialPartitioner.getLine(PointSet.wrap(new int[N], xs.clone(), ys.clone()));
+        Line approximate = InertialPartitioner.getApproximateLine(PointSet.wrap(new int[N], xs.clone(), ys.clone()), 0, N, 0.005);
+        assertEquals(exact.getA(), approximate.getA(), 0);
+        assertEquals(exact.getXbar(), approximate.getXbar(), 0);
+        assertTrue(exact.getImbalance() <= 1.0 / N);
+        assertTrue(approximate.getImbalance() <= 2 * 0.005);
+        assertEquals(approximate.getImbalance(), 
+                     Math.abs(approximate.getSplit() - (N - approximate.getSplit())) / (double)N, 0);
+        
+        //Same sketches, merged in the same order, on a pool
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        Line parallel = InertialPartitioner.getApproximateLine(PointSet.wrap(new int[N], xs.clone(), ys.clone()), 0, N, 0.005, pool);
+        pool.shutdown();
+        assertEquals(approximate.getSbar(), parallel.getSbar(), 0);
+        assertEquals(approximate.getSplit(), parallel.getSplit());
+    }
+
+    @Test
+    public void testWeightedMedian()
+    {
+        Random rand = new Random(1374);
+        for (int n = 1; n < 200; ++n)
+        {
+            double[] values = new double[n];
+            double[] weights = new double[n];
+            for (int i = 0; i < n; ++i)
+            {
+                values[i] = rand.nextInt(n / 2 + 1);
+                weights[i] = 1;
+            }
+
+            //Unit weights: the plain median
+            assertEquals(MedianFinder.median(values.clone(), 0, n),
+                         MedianFinder.weightedMedian(values.clone(), weights, 0, n), 0);
+
+            //Random weights: the first sorted value reaching half the weight
+            double total = 0;
+            for (int i = 0; i < n; ++i)
+                total += (weights[i] = rand.nextInt(5) + 1);
+            double[][] sorted = new double[n][];
+            for (int i = 0; i < n; ++i)
+                sorted[i] = new double[] {values[i], weights[i]};
+            Arrays.sort(sorted, new Comparator<double[]>() {
+                @Override
+                public int compare(double[] p1, double[] p2)
+                {
+                    return Double.compare(p1[0], p2[0]);
+                }
+            });
+            double cumulative = 0;
+            double expected = Double.NaN;
+            for (int i = 0; i < n; ++i)
+            {
+                cumulative += sorted[i][1];
+                if (cumulative >= total / 2)
+                {
+                    expected = (cumulative == total / 2 && i + 1 < n
+                                ? (sorted[i][0] + sorted[i + 1][0]) / 2
+                                : sorted[i][0]);
+                    break;
+                }
+            }
+            assertEquals(expected, MedianFinder.weightedMedian(values, weights, 0, n), 0);
+        }
+    }
+
+    @Test
+    public void testQuantiles()
+    {
+        Random rand = new Random(1374);
+        for (int n = 1; n < 200; ++n)
+        {
+            int parts = 2 + rand.nextInt(7);
+            double[] values = new double[n];
+            double[] weights = new double[n];
+            for (int i = 0; i < n; ++i)
+            {
+                values[i] = rand.nextInt(n / 2 + 1);
+                weights[i] = rand.nextInt(4); //some zeros
+            }
+            weights[0] = 1;
+
+            //Every cut is the weighted median of the part of the sorted values
+            //it falls into, i.e. the weightedMedian rule at c / parts
+            double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double[] cuts = MedianFinder.quantiles(values.clone(), null, 0, n, parts);
+            for (int c = 1; c < parts; ++c)
+            {
+                double rank = (double)n * c / parts;
+                int i = (int)Math.ceil(rank) - 1;
+                double expected = (Math.max(i, 0) + 1 == rank && i + 1 < n
+                                   ? (sorted[i] + sorted[i + 1]) / 2
+                                   : sorted[Math.max(i, 0)]);
+                assertEquals(expected, cuts[c - 1], 0);
+            }
+
+            //Weighted: the parts below every cut weigh at least c / parts
+            double total = 0;
+            for (int i = 0; i < n; ++i)
+                total += weights[i];
+            cuts = MedianFinder.quantiles(values.clone(), weights.clone(), 0, n, parts);
+            for (int c = 1; c < parts; ++c)
+            {
+                assertTrue(cuts[c - 1] >= cuts[Math.max(c - 2, 0)]);
+                double atOrBelow = 0, below = 0;
+                for (int i = 0; i < n; ++i)
+                {
+                    if (values[i] <= cuts[c - 1])
+                        atOrBelow += weights[i];
+                    if (values[i] < cuts[c - 1])
+                        below += weights[i];
+                }
+                assertTrue(atOrBelow >= total * c / parts);
+                assertTrue(below <= total * c / parts);
+            }
+        }
+    }
+
+    @Test
+    public void testGetSlices() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+
+        //Two parts: the line of getLine
+        Slicing halves = InertialPartitioner.getSlices(nodes, 2);
+        Line line = InertialPartitioner.getLine(nodes);
+        assertEquals(line, halves.getLines().get(0));
+        assertEquals(line.getSplit(), halves.getRegionTo(0));
+
+        //Five parts of equal size, contiguous, labelled in input order
+        final int N = nodes.size();
+        PointSet points = PointSet.fromNodes(nodes);
+        Slicing slices = InertialPartitioner.getSlices(points, 5);
+        assertEquals(5, slices.getRegionCount());
+        assertEquals(4, slices.getLines().size());
+        for (int r = 0; r < 5; ++r)
+        {
+            int size = slices.getRegionTo(r) - slices.getRegionFrom(r);
+            assertTrue(Math.abs(size - N / 5.0) <= 1);
+            for (int i = slices.getRegionFrom(r); i < slices.getRegionTo(r); ++i)
+                assertEquals(r, slices.locate(points.getX(i), points.getY(i)));
+        }
+        for (int i = 0; i < N; ++i)
+            assertEquals(slices.locate(nodes.get(i)), slices.getLabel(i));
+
+        //Line c puts region c on its left side and the later ones on its right side
+        for (int c = 0; c < 4; ++c)
+        {
+            Line cut = slices.getLines().get(c);
+            for (Node node : cut.getLeftNodes())
+                assertEquals(SideMembership.LEFT, cut.getSideMembership(node));
+            for (Node node : cut.getRightNodes())
+                assertEquals(SideMembership.RIGHT, cut.getSideMembership(node));
+            assertEquals(N - slices.getRegionFrom(c), cut.getLeftNodes().size() + cut.getRightNodes().size());
+        }
+    }
+
+    @Test
+    public void testSplitScheduler()
+    {
+        PointSet points = PointSet.wrap(new int[100], new int[100], new int[100]);
+        SplitScheduler<String> scheduler = new SplitScheduler<String>(points, SplitPolicy.COUNT);
+        scheduler.add("a", 0, 10);
+        int b = scheduler.add("b", 10, 40);
+        scheduler.add("c", 40, 70);   //same size as b, comes after it
+        int d = scheduler.add("d", 70, 75);
+        scheduler.add("e", 75, 100);
+
+        scheduler.setPriority(d, 50);
+        assertEquals("d", scheduler.poll());
+        assertEquals("b", scheduler.remove(b));
+        assertEquals(3, scheduler.size());
+        assertEquals("c", scheduler.poll());
+        assertEquals("e", scheduler.poll());
+        assertEquals("a", scheduler.poll());
+        assertEquals(null, scheduler.poll());
+    }
+
+    @Test
+    public void testSplitPolicies() throws Exception
+    {
+        //Regions of equal size are all split, none is dropped
+        List<Node> nodes = new ArrayList<Node>();
+        for (int x = 0; x < 8; ++x)
+            for (int y = 0; y < 8; ++y)
+                nodes.add(new Node(8 * x + y, x, y));
+        List<Line> lines = InertialPartitioner.getLines(nodes, 3);
+        assertEquals(3, lines.size());
+        assertEquals(64, lines.get(0).getTo() - lines.get(0).getFrom());
+        assertEquals(32, lines.get(1).getTo() - lines.get(1).getFrom());
+        assertEquals(32, lines.get(2).getTo() - lines.get(2).getFrom());
+        assertTrue(lines.get(1).getFrom() != lines.get(2).getFrom());
+
+        //A long thin strip of few points and a dense square: COUNT picks 
+        //the square, EXTENT and COST the strip
+        final int N = 1100;
+        int[] xs = new int[N], ys = new int[N];
+        double[] weights = new double[N];
+        for (int i = 0; i < N; ++i)
+        {
+            xs[i] = (i < 100 ? 1000 + 10 * i : (i - 100) % 32);
+            ys[i] = (i < 100 ? 0 : (i - 100) / 32);
+            weights[i] = (i < 100 ? 20 : 1);
+        }
+        PointSet points = PointSet.wrap(new int[N], xs, ys, weights);
+        SplitPolicy[] policies = {SplitPolicy.COUNT, SplitPolicy.WEIGHT, SplitPolicy.EXTENT, SplitPolicy.COST};
+        String[] expected = {"square", "strip", "strip", "strip"};
+        for (int p = 0; p < policies.length; ++p)
+        {
+            SplitScheduler<String> scheduler = new SplitScheduler<String>(points, policies[p]);
+            scheduler.add("strip", 0, 100);
+            scheduler.add("square", 100, N);
+            assertEquals(expected[p], scheduler.poll());
+        }
+        assertEquals(990, SplitPolicy.EXTENT.getPriority(points, 0, 100), 0);
+        assertEquals(2000, SplitPolicy.WEIGHT.getPriority(points, 0, 100), 0);
+
+        //Any policy gives k + 1 regions
+        for (SplitPolicy policy : policies)
+            assertEquals(6, InertialPartitioner.getPartitionTree(PointSet.wrap(new int[N], xs.clone(), ys.clone()), 5, policy).getRegionCount());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPartitionVector() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        final int N = nodes.size();
+        final int k = 6;
+
+        //The partition vector agrees with locate, node by node
+        int[] partition = new int[N];
+        List<Line> lines = InertialPartitioner.getLines(nodes, k, partition);
+        assertEquals(InertialPartitioner.getLines(nodes, k), lines);
+        PointSet points = PointSet.fromNodes(nodes);
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, k);
+        assertTrue(Arrays.equals(partition, tree.getPartition()));
+        for (Node node : nodes)
+            assertEquals(tree.locate(node), partition[node.getId()]);
+
+        //Paths: distinct, as long as the depth, and following the sides
+        java.util.Set<Long> paths = new java.util.HashSet<Long>();
+        for (int r = 0; r < tree.getRegionCount(); ++r)
+        {
+            long path = tree.getRegionPath(r);
+            assertTrue(paths.add(path));
+            assertTrue(63 - Long.numberOfLeadingZeros(path) <= tree.getDepth());
+        }
+        Line first = lines.get(0);
+        for (Node node : nodes)
+        {
+            long path = tree.getPath(node.getX(), node.getY());
+            long firstBit = (path >>> (62 - Long.numberOfLeadingZeros(path))) & 1;
+            assertEquals(first.getSideMembership(node).getValue(), firstBit);
+        }
+
+        //Binary codes: getBinaryString packed into a long
+        InertialPartitioner partitioner = new InertialPartitioner();
+        long[] codes = new long[N];
+        InertialPartitioner.getBinaryCodes(points, lines, codes);
+        for (int i = 0; i < N; ++i)
+        {
+            Node node = points.getNode(i);
+            long code = InertialPartitioner.getBinaryCode(node, lines);
+            assertEquals(code, codes[i]);
+            String bits = partitioner.getBinaryString(node, lines);
+            for (int l = 0; l < k; ++l)
+                assertEquals(bits.charAt(l) - '0', (code >>> l) & 1);
+        }
+    }
+
+    @Test
+    public void testKernels()
+    {
+        Random rand = new Random(1374);
+        for (int range : new int[] {100, 1 << 20, Integer.MAX_VALUE})
+        {
+            final int N = 10001;
+            int[] xs = new int[N], ys = new int[N];
+            for (int i = 0; i < N; ++i)
+            {
+                xs[i] = rand.nextInt(range) - range / 2;
+                ys[i] = rand.nextInt(range) - range / 2;
+            }
+            PointSet points = PointSet.wrap(new int[N], xs, ys);
+
+            //Moments: exactly the point by point sums (large ranges fall back)
+            Moments expected = new Moments(xs[0], ys[0]);
+            for (int i = 0; i < N; ++i)
+                expected.add(xs[i], ys[i]);
+            Moments actual = Moments.of(points, 0, N);
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getXbar(), actual.getXbar(), 0);
+            assertEquals(expected.getYbar(), actual.getYbar(), 0);
+            assertEquals(expected.getX1(), actual.getX1(), 0);
+            assertEquals(expected.getX2(), actual.getX2(), 0);
+            assertEquals(expected.getX3(), actual.getX3(), 0);
+
+            //Projections and partition: the sj of Line.getSj, LEFT first
+            double a = 0.37, b = 1, xbar = actual.getXbar(), ybar = actual.getYbar();
+            double[] sValues = new double[N + 3];
+            points.project(0, N, a, b, xbar, ybar, sValues, 3);
+            for (int i = 0; i < N; ++i)
+                assertEquals(Line.getSj(xs[i], ys[i], a, b, xbar, ybar), sValues[i + 3], 0);
+
+            Line line = new Line(a, b, xbar, ybar, MedianFinder.median(sValues, 3, N + 3), points, 0, N);
+            for (int i = 0; i < N; ++i)
+                assertEquals(i < line.getSplit() ? SideMembership.LEFT : SideMembership.RIGHT,
+                             line.getSideMembership(points.getX(i), points.getY(i)));
+        }
+    }
+
+    @Test
+    public void testOffHeapPointSet() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        final int N = nodes.size();
+
+        //Segments of 16 values, so that every column spans many buffers
+        OffHeapPointSet offHeap = OffHeapPointSet.allocate(N, true, true, 4);
+        int[] ids = new int[N], xs = new int[N], ys = new int[N];
+        double[] weights = new double[N];
+        for (int i = 0; i < N; ++i)
+        {
+            Node node = nodes.get(i);
+            ids[i] = node.getId();
+            xs[i] = node.getX();
+            ys[i] = node.getY();
+            weights[i] = 1 + i % 3;
+            offHeap.set(i, ids[i], xs[i], ys[i]);
+            offHeap.setWeight(i, weights[i]);
+        }
+
+        PointSet onHeap = PointSet.wrap(ids, xs, ys, weights);
+        assertEquals(InertialPartitioner.getLines(onHeap, 5), InertialPartitioner.getLines(offHeap, 5));
+        for (int i = 0; i < N; ++i)
+        {
+            assertEquals(onHeap.getId(i), offHeap.getId(i));
+            assertEquals(onHeap.getX(i), offHeap.getX(i));
+            assertEquals(onHeap.getWeight(i), offHeap.getWeight(i), 0);
+        }
+
+        //Writes after reordering go to the point now at that index
+        offHeap.set(0, -1, 7, 8);
+        assertEquals(-1, offHeap.getId(0));
+        assertEquals(7, offHeap.getX(0));
+
+        //Without ids, the id is the position at allocation
+        OffHeapPointSet positions = PointSet.allocateOffHeap(3, false, false);
+        positions.set(0, 99, 5, 0);
+        positions.set(2, 99, 1, 0);
+        positions.swap(0, 2);
+        assertEquals(2, positions.getId(0));
+        assertEquals(1, positions.getX(0));
+        assertEquals(1, positions.getWeight(1), 0);
+
+        //Large columns are mapped from a temporary file, not direct buffers
+        OffHeapColumn column = OffHeapColumn.allocateMapped(100, 4);
+        assertEquals(0, column.getInt(99));
+        for (int i = 0; i < 100; ++i)
+            column.putInt(i, i);
+        column.swap(3, 97);
+        assertEquals(97, column.getInt(3));
+        assertEquals(3, column.getInt(97));
+        assertEquals(50, column.getInt(50));
+
+        //Mapped sets are read-only
+        File binary = File.createTempFile("offheap", ".pts");
+        binary.deleteOnExit();
+        PointFile.write(onHeap, binary);
+        OffHeapPointSet mapped = PointFile.map(binary);
+        assertEquals(onHeap.getY(N - 1), mapped.getY(N - 1));
+        try
+        {
+            mapped.set(0, 0, 0, 0);
+            fail("a mapped set is read-only");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    @Test
+    public void testOffHeapPointSetParallel() throws Exception
+    {
+        //A 600 x 400 grid stored column by column: the root line is across
+        //x, so one of the two orders needs no swap at the root and both
+        //halves make their first swaps at the same time
+        final int width = 600, height = 400, N = width * height;
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        for (int descending = 0; descending < 2; ++descending)
+        {
+            OffHeapPointSet sequential = PointSet.allocateOffHeap(N, false, false);
+            int i = 0;
+            for (int x = 0; x < width; ++x)
+                for (int y = 0; y < height; ++y)
+                    sequential.set(i++, 0, (descending == 0 ? x : width - 1 - x), y);
+            List<Line> expected = InertialPartitioner.getLines(sequential, 7);
+
+            for (int run = 0; run < 10; ++run)
+            {
+                OffHeapPointSet parallel = PointSet.allocateOffHeap(N, false, false);
+                i = 0;
+                for (int x = 0; x < width; ++x)
+                    for (int y = 0; y < height; ++y)
+                        parallel.set(i++, 0, (descending == 0 ? x : width - 1 - x), y);
+                assertEquals(expected, InertialPartitioner.getLinesParallel(parallel, 7, pool, 1));
+                
+                //Every region holds the same points (in any order)
+                java.util.TreeSet<Integer> bounds = new java.util.TreeSet<Integer>();
+                for (Line line : expected)
+                {
+                    bounds.add(line.getFrom());
+                    bounds.add(line.getSplit());
+                    bounds.add(line.getTo());
+                }
+                Integer from = bounds.first();
+                for (Integer to = bounds.higher(from); to != null; from = to, to = bounds.higher(to))
+                {
+                    int[] s = new int[to - from], q = new int[to - from];
+                    for (int j = from; j < to; ++j)
+                    {
+                        s[j - from] = sequential.getId(j);
+                        q[j - from] = parallel.getId(j);
+                    }
+                    Arrays.sort(s);
+                    Arrays.sort(q);
+                    assertTrue(Arrays.equals(s, q));
+                }
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testPartitionMetrics() throws Exception
+    {
+        PartitionMetrics metrics = new PartitionMetrics();
+        InertialPartitioner.setMetrics(metrics);
+        List<Line> lines;
+        try
+        {
+            lines = InertialPartitioner.getLines(PointSet.fromNodes(readFloorPlan()), 5);
+        }
+        finally
+        {
+            InertialPartitioner.setMetrics(null);
+        }
+
+        assertEquals(5, metrics.getBisectionCount());
+        assertTrue(metrics.getBisectionsPerSecond() > 0);
+        assertEquals(PartitionMetrics.Phase.values().length, metrics.getPhaseNames().length);
+        long[] p50 = metrics.getPhaseP50Nanos();
+        long[] max = metrics.getPhaseMaxNanos();
+        for (int p = 0; p < p50.length; ++p)
+            assertTrue(0 <= p50[p] && p50[p] <= max[p]);
+
+        //Histogram buckets are within 1/32 of the value recorded
+        double worst = 0;
+        for (Line line : lines)
+            worst = Math.max(worst, line.getImbalance());
+        assertEquals(worst, metrics.getImbalanceMax(), worst / 32 + 1e-6);
+        assertTrue(metrics.getImbalanceP50() <= metrics.getImbalanceMax());
+
+        //Regions left waiting after each poll: 1, 2, 3, 4
+        assertEquals(4, metrics.getMaxQueueDepth());
+
+        metrics.reset();
+        assertEquals(0, metrics.getBisectionCount());
+        assertEquals(0, metrics.getPhaseMaxNanos()[0]);
+
+        metrics.register();
+        try
+        {
+            javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            assertEquals(0L, server.getAttribute(new javax.management.ObjectName(PartitionMetrics.OBJECT_NAME), "BisectionCount"));
+        }
+        finally
+        {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void testCellGraph() throws Exception
+    {
+        //The implicit grid and the compressed rows agree on every vertex
+        CellGraph grid = CellGraph.grid(7, 9);
+        CellGraph csr = CellGraph.csr(7, 9);
+        assertEquals(63, csr.getVertexCount());
+        assertEquals(grid.getEdgeCount(), csr.getEdgeCount());
+        int[] n1 = new int[8], n2 = new int[8];
+        float[] w1 = new float[8], w2 = new float[8];
+        long degrees = 0;
+        for (int v = 0; v < 63; ++v)
+        {
+            int d = grid.getNeighbors(v, n1, w1);
+            assertEquals(d, csr.getNeighbors(v, n2, w2));
+            assertEquals(d, grid.getDegree(v));
+            assertTrue(Arrays.equals(Arrays.copyOf(n1, d), Arrays.copyOf(n2, d)));
+            assertTrue(Arrays.equals(Arrays.copyOf(w1, d), Arrays.copyOf(w2, d)));
+            assertEquals(grid.getX(v), csr.getX(v));
+            degrees += d;
+        }
+        assertEquals(2 * csr.getEdgeCount(), degrees);
+        assertEquals(3, grid.getDegree(0));
+        assertEquals(8, grid.getDegree(9 + 1));
+
+        //Missing cells: the parallel build matches the sequential one
+        Random rand = new Random(21);
+        final int rows = 300, cols = 400;
+        BitSet cells = new BitSet(rows * cols);
+        for (int c = 0; c < rows * cols; ++c)
+            if (rand.nextInt(10) != 0)
+                cells.set(c);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        CellGraph parallel = CellGraph.csr(rows, cols, cells, pool);
+        pool.shutdown();
+        CellGraph sequential = CellGraph.csr(rows, cols, cells, null);
+        assertEquals(cells.cardinality(), parallel.getVertexCount());
+        for (int v = 0; v < parallel.getVertexCount(); ++v)
+        {
+            int d = parallel.getNeighbors(v, n1, w1);
+            assertEquals(d, sequential.getNeighbors(v, n2, null));
+            assertTrue(Arrays.equals(Arrays.copyOf(n1, d), Arrays.copyOf(n2, d)));
+            assertTrue(cells.get(parallel.getY(v) * cols + parallel.getX(v)));
+            for (int i = 0; i < d; ++i)
+            {
+                int dx = Math.abs(parallel.getX(n1[i]) - parallel.getX(v));
+                int dy = Math.abs(parallel.getY(n1[i]) - parallel.getY(v));
+                assertTrue(dx <= 1 && dy <= 1);
+                assertEquals(dx + dy == 2 ? CellGraph.DIAGONAL : 1, w1[i], 0);
+            }
+        }
+
+        //The vertices are the ids of the points
+        PointSet points = parallel.toPointSet();
+        InertialPartitioner.getLines(points, 4);
+        for (int i = 0; i < points.size(); ++i)
+            assertEquals(parallel.getX(points.getId(i)), points.getX(i));
+    }
+
+    @Test
+    public void testEdgeCut() throws Exception
+    {
+        //2 x 2 cells split into columns: all 4 edges but the vertical ones are cut
+        CellGraph square = CellGraph.grid(2, 2);
+        EdgeCut columns = EdgeCut.of(square, new int[] {0, 1, 0, 1}, 2, null);
+        assertEquals(4, columns.getCutEdgeCount());
+        assertEquals(2 + 2 * CellGraph.DIAGONAL, columns.getEdgeCut(), 1e-6);
+        assertEquals(columns.getEdgeCut(), columns.getPartEdgeCut(0), 1e-6);
+        assertEquals(4, columns.getBoundaryNodeCount());
+        assertEquals(4, columns.getCommunicationVolume());
+        assertEquals(2, columns.getPartSize(1));
+
+        //The regions of the lines are the regions of the tree
+        Random rand = new Random(22);
+        final int rows = 300, cols = 400;
+        BitSet cells = new BitSet(rows * cols);
+        for (int c = 0; c < rows * cols; ++c)
+            if (rand.nextInt(5) != 0)
+                cells.set(c);
+        CellGraph graph = CellGraph.csr(rows, cols, cells, null);
+        PartitionTree tree = InertialPartitioner.getPartitionTree(graph.toPointSet(), 11);
+        int[] labels = tree.getPartition();
+        assertTrue(Arrays.equals(labels, EdgeCut.getLabels(graph, tree.getLines())));
+
+        //The parallel pass matches a plain count over the edges
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        EdgeCut cut = EdgeCut.of(graph, tree.getLines(), pool);
+        pool.shutdown();
+        EdgeCut sequential = EdgeCut.of(graph, tree, null);
+        assertEquals(12, cut.getPartCount());
+        assertEquals(sequential.getEdgeCut(), cut.getEdgeCut(), 0);
+        assertEquals(sequential.getCommunicationVolume(), cut.getCommunicationVolume());
+
+        int[] neighbors = new int[8];
+        float[] weights = new float[8];
+        double weight = 0;
+        long edges = 0, boundary = 0, volume = 0;
+        for (int v = 0; v < graph.getVertexCount(); ++v)
+        {
+            int degree = graph.getNeighbors(v, neighbors, weights);
+            java.util.Set<Integer> others = new java.util.HashSet<Integer>();
+            for (int i = 0; i < degree; ++i)
+                if (labels[neighbors[i]] != labels[v])
+                {
+                    others.add(labels[neighbors[i]]);
+                    if (neighbors[i] > v)
+                    {
+                        weight += weights[i];
+                        ++edges;
+                    }
+                }
+            boundary += (others.isEmpty() ? 0 : 1);
+            volume += others.size();
+        }
+        assertEquals(edges, cut.getCutEdgeCount());
+        assertEquals(weight, cut.getEdgeCut(), 1e-6);
+        assertEquals(boundary, cut.getBoundaryNodeCount());
+        assertEquals(volume, cut.getCommunicationVolume());
+    }
+
+    @Test
+    public void testBoundaryRefiner() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        int rows = 0, cols = 0;
+        for (Node node : nodes)
+        {
+            cols = Math.max(cols, node.getX() + 1);
+            rows = Math.max(rows, node.getY() + 1);
+        }
+        BitSet cells = new BitSet(rows * cols);
+        for (Node node : nodes)
+            cells.set(node.getY() * cols + node.getX());
+        CellGraph graph = CellGraph.csr(rows, cols, cells, null);
+
+        final int parts = 8;
+        int[] labels = InertialPartitioner.getPartitionTree(graph.toPointSet(), parts - 1).getPartition();
+        EdgeCut before = EdgeCut.of(graph, labels, parts, null);
+
+        //The gain is the decrease of the cut, whatever the pool
+        int[] sequential = labels.clone();
+        double gain = BoundaryRefiner.refine(graph, sequential, parts, null);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        int[] parallel = labels.clone();
+        BoundaryRefiner.refine(graph, parallel, parts, pool);
+        pool.shutdown();
+        assertTrue(Arrays.equals(sequential, parallel));
+
+        EdgeCut after = EdgeCut.of(graph, sequential, parts, null);
+        assertTrue(gain > 0);
+        assertEquals(before.getEdgeCut() - gain, after.getEdgeCut(), 1e-6);
+        for (int p = 0; p < parts; ++p)
+        {
+            long size = before.getPartSize(p);
+            assertTrue(Math.abs(after.getPartSize(p) - size) <= Math.max(1, Math.ceil(size * BoundaryRefiner.DEFAULT_IMBALANCE)));
+        }
+
+        //A single bisection, with no slack at all but one vertex
+        int[] halves = InertialPartitioner.getPartitionTree(graph.toPointSet(), 1).getPartition();
+        EdgeCut bisection = EdgeCut.of(graph, halves, 2, null);
+        double pairGain = BoundaryRefiner.refinePair(graph, halves, 2, 0, 1, 0, 4);
+        EdgeCut refined = EdgeCut.of(graph, halves, 2, null);
+        assertEquals(bisection.getEdgeCut() - pairGain, refined.getEdgeCut(), 1e-6);
+        assertTrue(refined.getEdgeCut() <= bisection.getEdgeCut());
+        assertTrue(Math.abs(refined.getPartSize(0) - bisection.getPartSize(0)) <= 1);
+
+        //Weighted vertices on a path: 1 and 4 gain as much, but only 1 is
+        //light enough to move; part 0 is too heavy to give anything away
+        CellGraph path = CellGraph.csr(1, 6);
+        int[] weights = {3, 1, 3, 3, 5, 3};
+        int[] sides = {0, 1, 0, 0, 1, 0};
+        assertEquals(2, BoundaryRefiner.refine(path, weights, sides, 2, 0, 1, null), 1e-9);
+        assertTrue(Arrays.equals(new int[] {0, 0, 0, 0, 1, 0}, sides));
+    }
+
+    @Test
+    public void testMultilevelPartitioner() throws Exception
+    {
+        //Four copies of the floor plan, side by side
+        List<Node> nodes = readFloorPlan();
+        int width = 0, height = 0;
+        for (Node node : nodes)
+        {
+            width = Math.max(width, node.getX() + 1);
+            height = Math.max(height, node.getY() + 1);
+        }
+        final int rows = 2 * height, cols = 2 * width;
+        BitSet cells = new BitSet(rows * cols);
+        for (int copy = 0; copy < 4; ++copy)
+            for (Node node : nodes)
+                cells.set((node.getY() + (copy / 2) * height) * cols + node.getX() + (copy % 2) * width);
+        CellGraph graph = CellGraph.csr(rows, cols, cells, null);
+        final int n = graph.getVertexCount();
+
+        //Without coarsening: the lines, then refinement
+        final int k = 5;
+        int[] flat = InertialPartitioner.getPartitionTree(graph.toPointSet(), k).getPartition();
+        BoundaryRefiner.refine(graph, flat, k + 1, null);
+        assertTrue(Arrays.equals(flat, MultilevelPartitioner.partition(graph, k, 2, n, BoundaryRefiner.DEFAULT_IMBALANCE, null)));
+
+        //Two levels of 2 x 2 blocks
+        int[] labels = MultilevelPartitioner.partition(graph, k, 2, n / 10, BoundaryRefiner.DEFAULT_IMBALANCE, null);
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        assertTrue(Arrays.equals(labels, MultilevelPartitioner.partition(graph, k, 2, n / 10, BoundaryRefiner.DEFAULT_IMBALANCE, pool)));
+        pool.shutdown();
+
+        //Parts as large as those of the lines (1/4, 1/4, 1/8 ... of the cells)
+        EdgeCut cut = EdgeCut.of(graph, labels, k + 1, null);
+        EdgeCut lines = EdgeCut.of(graph, InertialPartitioner.getPartitionTree(graph.toPointSet(), k).getPartition(), k + 1, null);
+        long[] expected = new long[k + 1], actual = new long[k + 1];
+        long sizes = 0;
+        for (int p = 0; p <= k; ++p)
+        {
+            expected[p] = lines.getPartSize(p);
+            actual[p] = cut.getPartSize(p);
+            sizes += actual[p];
+        }
+        assertEquals(n, sizes);
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        for (int p = 0; p <= k; ++p)
+            assertEquals(expected[p], actual[p], 0.1 * expected[p]);
+        assertTrue(cut.getEdgeCut() < lines.getEdgeCut());
+    }
+
+    @Test
+    public void testRasterPlan() throws Exception
+    {
+        List<Node> nodes = readFloorPlan();
+        int width = 0, height = 0;
+        for (Node node : nodes)
+        {
+            width = Math.max(width, node.getX() + 1);
+            height = Math.max(height, node.getY() + 1);
+        }
+        BitSet cells = new BitSet(height * width);
+        for (Node node : nodes)
+            cells.set(node.getY() * width + node.getX());
+
+        RasterPlan plan = RasterPlan.fromBitSet(height, width, cells);
+        assertEquals(nodes.size(), plan.getCellCount());
+        assertTrue(plan.getRunCount() < nodes.size());
+        assertEquals(cells, plan.toBitSet());
+
+        //The runs give exactly the lines of the cells
+        Line line = plan.getLine();
+        Line expected = InertialPartitioner.getLine(plan.toPointSet());
+        assertLinesEqual(java.util.Collections.singletonList(expected), java.util.Collections.singletonList(line), 0);
+        List<Line> lines = plan.getLines(7);
+        assertLinesEqual(InertialPartitioner.getLines(plan.toPointSet(), 7), lines, 0);
+
+        //An odd number of cells, on a grid with no gaps
+        BitSet full = new BitSet(15);
+        full.set(0, 15);
+        RasterPlan grid = RasterPlan.fromBitSet(3, 5, full);
+        assertEquals(3, grid.getRunCount());
+        assertLinesEqual(InertialPartitioner.getLines(grid.toPointSet(), 4), grid.getLines(4), 0);
+
+        //A mask image: light pixels are the available cells
+        java.awt.image.BufferedImage image = new java.awt.image.BufferedImage(width, height, java.awt.image.BufferedImage.TYPE_INT_RGB);
+        for (Node node : nodes)
+            image.setRGB(node.getX(), node.getY(), 0xffffff);
+        RasterPlan read = RasterPlan.fromImage(image, RasterPlan.DEFAULT_THRESHOLD);
+        assertEquals(plan.getRunCount(), read.getRunCount());
+        assertEquals(cells, read.toBitSet());
+        assertLinesEqual(lines, read.getLines(7), 0);
+    }
+
+    @Test
+    public void testRasterPlanRegions() throws Exception
+    {
+        //A mask whose later lines have sbar = 0: the moments of a region
+        //must not depend on where the sums started
+        String[] mask = {
+            "#.#.##..#.",
+            "####.#.##.",
+            "##.#...#.#",
+            ".#...###..",
+        };
+        BitSet cells = new BitSet();
+        for (int y = 0; y < mask.length; ++y)
+            for (int x = 0; x < mask[y].length(); ++x)
+                if (mask[y].charAt(x) == '#')
+                    cells.set(y * mask[y].length() + x);
+        assertSameRegions(RasterPlan.fromBitSet(mask.length, mask[0].length(), cells), 8);
+
+        Random rand = new Random(5120);
+        for (int t = 0; t < 500; ++t)
+        {
+            int rows = 1 + rand.nextInt(12), cols = 1 + rand.nextInt(12);
+            double density = 0.2 + 0.8 * rand.nextDouble();
+            cells = new BitSet(rows * cols);
+            for (int c = 0; c < rows * cols; ++c)
+                if (rand.nextDouble() < density)
+                    cells.set(c);
+            RasterPlan plan = RasterPlan.fromBitSet(rows, cols, cells);
+            if (plan.getCellCount() < 2)
+                continue;
+            assertSameRegions(plan, 1 + rand.nextInt((int)Math.min(plan.getCellCount() - 1, 12)));
+        }
+    }
+
+    /**
+     * Asserts that the runs of plan give the lines of its cells, and that
+     * every cell falls in the same region either way
+     */
+    private static void assertSameRegions(RasterPlan plan, int k) throws Exception
+    {
+        PartitionTree tree = InertialPartitioner.getPartitionTree(plan.toPointSet(), k);
+        List<Line> lines = plan.getLines(k);
+        assertLinesEqual(tree.getLines(), lines, 0);
+        assertTrue(Arrays.equals(tree.getPartition(), EdgeCut.getLabels(plan.toCellGraph(null), lines)));
+    }
+
+    @Test
+    public void testWeightedPartitioning() throws Exception
+    {
+        Random rand = new Random(1374);
+        final int N = 20000;
+        int[] xs = new int[N], ys = new int[N];
+        double[] ones = new double[N], weights = new double[N];
+        for (int i = 0; i < N; ++i)
+        {
+            xs[i] = rand.nextInt(1000);
+            ys[i] = rand.nextInt(400);
+            ones[i] = 1;
+            weights[i] = (xs[i] < 250 ? 10 : 1); //a hot spot on the left
+        }
+
+        //Unit weights: the same lines as without weights
+        List<Line> plain = InertialPartitioner.getLines(PointSet.wrap(new int[N], xs.clone(), ys.clone()), 5);
+        List<Line> unit = InertialPartitioner.getLines(PointSet.wrap(new int[N], xs.clone(), ys.clone(), ones), 5);
+        for (int i = 0; i < plain.size(); ++i)
+        {
+            assertEquals(plain.get(i).getSbar(), unit.get(i).getSbar(), 0);
+            assertEquals(plain.get(i).getSplit(), unit.get(i).getSplit());
+        }
+
+        //The hot spot pulls the first line to the left, both sides weigh the same
+        PointSet points = PointSet.wrap(new int[N], xs.clone(), ys.clone(), weights.clone());
+        double total = points.getWeight(0, N);
+        Line first = InertialPartitioner.getLine(points);
+        assertTrue(first.getXbar() < 500);
+        assertEquals(total / 2, points.getWeight(0, first.getSplit()), 10);
+
+        //k + 1 = 4 regions of about the same weight, not the same size
+        points = PointSet.wrap(new int[N], xs.clone(), ys.clone(), weights.clone());
+        PartitionTree tree = InertialPartitioner.getPartitionTree(points, 3);
+        for (int r = 0; r < 4; ++r)
+            assertEquals(total / 4, points.getWeight(tree.getRegionFrom(r), tree.getRegionTo(r)), 20);
+
+        //Nodes carry their weight into the point set
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < N; ++i)
+            nodes.add(new Node(i, xs[i], ys[i], weights[i]));
+        Line fromNodes = InertialPartitioner.getLine(nodes);
+        assertEquals(first.getA(), fromNodes.getA(), 1e-9);
+        assertEquals(first.getSbar(), fromNodes.getSbar(), 1e-9);
+    }
+
+    /**
+     * The median computation used by getLine before MedianFinder:
+     * binary insertion into a sorted LinkedList.
+     */
+    private static void assertLinesEqual(List<Line> expected, List<Line> actual, double tolerance)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            Line e = expected.get(i), l = actual.get(i);
+            assertEquals(e.getA(), l.getA(), tolerance);
+            assertEquals(e.getB(), l.getB(), tolerance);
+            assertEquals(e.getXbar(), l.getXbar(), tolerance);
+            assertEquals(e.getYbar(), l.getYbar(), tolerance);
+            assertEquals(e.getSbar(), l.getSbar(), tolerance);
+        }
+    }
+    
+    private static double getLinkedListSbar(Collection<Node> nodes, Line line)
+    {
+        LinkedList<Double> sValues = new LinkedList<Double>();
+        double sj = 0;
+        int max, min, mid, size;
+        for (Node node : nodes)
+        {
+            sj = Line.getSj(node, line.getA(), line.getB(), line.getXbar(), line.getYbar());
+            if (sValues.isEmpty())
+                sValues.add(sj);
+            else
+            {
+                min = 0;
+                max = sValues.size() - 1;
+                while (max >= min)
+                {
+                    mid = (min + max) / 2;
+                    if (sj < sValues.get(mid))
+                        max = mid - 1;
+                    else if (sj > sValues.get(mid))
+                        min = mid + 1;
+                    else
+                    {
+                        min = mid;
+                        break;
+                    }
+                }   
+                sValues.add(min, sj);               
+            }
+        }
+        
+        size = sValues.size();
+        return (size % 2 == 0
+                ? (sValues.get(size / 2) + sValues.get(size / 2 - 1)) / 2
+                : sValues.get(size / 2));
+    }
+    
+    private static List<Node> readFloorPlan() throws FileNotFoundException
+    {
+        List<Node> nodes = new ArrayList<Node>();
+        Scanner sc = new Scanner(new File("floor_plan.png_1374_availCell.txt"));
+        String tokens[];
+        int id = 0;
+        
+        while (sc.hasNextLine())
+        {
+            tokens = sc.nextLine().split("\\s");
+            nodes.add(new Node(id++, Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])));
+        }
+        sc.close();
+        
+        return nodes;
+    }
 }